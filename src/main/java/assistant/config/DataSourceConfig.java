@@ -0,0 +1,81 @@
+package assistant.config;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * Two pools: the application pool (schema introspection, RAG, cache bookkeeping) configured from
+ * spring.datasource as before, and a separate read-only pool for LLM-generated SQL so a slow
+ * generated query cannot take the connections everything else needs. The generated-query pool
+ * can point at a read replica via query.datasource.url and defaults to the primary database.
+ */
+@Configuration
+public class DataSourceConfig {
+
+    // Declaring any DataSource turns off Boot's auto-configured one, so the primary is declared explicitly
+    @Bean
+    @Primary
+    @ConfigurationProperties("spring.datasource")
+    public DataSourceProperties dataSourceProperties() {
+        return new DataSourceProperties();
+    }
+
+    @Bean
+    @Primary
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    // Also declared explicitly: the generated-query template below would otherwise suppress Boot's
+    @Bean
+    @Primary
+    public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+        return new JdbcTemplate(dataSource);
+    }
+
+    @Bean(name = "generatedQueryDataSource", destroyMethod = "close")
+    public HikariDataSource generatedQueryDataSource(
+            @Value("${query.datasource.url:${spring.datasource.url}}") String url,
+            @Value("${query.datasource.username:${spring.datasource.username}}") String username,
+            @Value("${query.datasource.password:${spring.datasource.password}}") String password,
+            @Value("${query.datasource.maximum-pool-size:2}") int maximumPoolSize,
+            @Value("${query.datasource.connection-timeout:PT10S}") Duration connectionTimeout,
+            @Value("${query.datasource.prepare-threshold:2}") int prepareThreshold) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("generated-query");
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMaximumPoolSize(maximumPoolSize);
+        config.setMinimumIdle(0);
+        config.setConnectionTimeout(connectionTimeout.toMillis());
+        // pgjdbc applies the read-only flag only inside explicit transactions by default (readOnlyMode=transaction);
+        // "always" also sets the session read-only, so autocommit statements (EXPLAINs, streamed queries) are
+        // covered and Postgres rejects writes even if a statement slips past the analyzer
+        config.setReadOnly(true);
+        config.addDataSourceProperty("readOnlyMode", "always");
+        // Generated SQL runs with its literals bound: switch to a named server-side statement on the
+        // second execution of the same text, and send string parameters untyped so uuid/date/enum
+        // comparisons infer the column type instead of failing on varchar
+        config.addDataSourceProperty("prepareThreshold", prepareThreshold);
+        config.addDataSourceProperty("stringtype", "unspecified");
+        return new HikariDataSource(config);
+    }
+
+    @Bean(name = "generatedQueryJdbcTemplate")
+    public JdbcTemplate generatedQueryJdbcTemplate(@Qualifier("generatedQueryDataSource") DataSource dataSource) {
+        return new JdbcTemplate(dataSource);
+    }
+}
@@ -0,0 +1,103 @@
+package assistant.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+@EnableScheduling // QueryResultCache table invalidation
+public class ExecutorConfig {
+
+    // Runs speculative generate_sql candidates (LLM call + EXPLAIN) side by side
+    @Bean(name = "sqlCandidateExecutor", destroyMethod = "shutdownNow")
+    public ExecutorService sqlCandidateExecutor(
+            @Value("${sql.speculative.threads:4}") int threads,
+            @Value("${sql.speculative.queue-capacity:32}") int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("sql-candidate-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    // LLM calls run here so the orchestration thread can stop waiting (and interrupt them) at the deadline
+    @Bean(name = "llmExecutor", destroyMethod = "shutdownNow")
+    public ExecutorService llmExecutor(
+            @Value("${orchestration.llm-threads:8}") int threads,
+            @Value("${orchestration.llm-queue-capacity:64}") int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("llm-call-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Request preparation stages (history load, embedding, RAG retrieval, schema warm-up)
+    @Bean(name = "preparationExecutor", destroyMethod = "shutdownNow")
+    public ExecutorService preparationExecutor(
+            @Value("${orchestration.preparation-threads:8}") int threads,
+            @Value("${orchestration.preparation-queue-capacity:64}") int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("request-prep-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    // Generated statements run here, one thread per generated-query connection. The FIFO queue is the
+    // admission order; a full queue rejects instead of piling up requests behind a slow query
+    @Bean(name = "generatedSqlExecutor", destroyMethod = "shutdownNow")
+    public ExecutorService generatedSqlExecutor(
+            @Value("${query.datasource.maximum-pool-size:2}") int threads,
+            @Value("${query.datasource.queue-capacity:16}") int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity, true),
+                new CustomizableThreadFactory("generated-sql-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Runs /assistant requests off the servlet thread so the controller can react to timeouts and disconnects
+    @Bean(name = "assistantRequestExecutor", destroyMethod = "shutdownNow")
+    public ExecutorService assistantRequestExecutor(
+            @Value("${orchestration.request-threads:16}") int threads,
+            @Value("${orchestration.request-queue-capacity:64}") int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("assistant-request-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Independent MCP actions of one batch run here concurrently; a full queue fails the step instead of blocking
+    @Bean(name = "mcpActionExecutor", destroyMethod = "shutdownNow")
+    public ExecutorService mcpActionExecutor(
+            @Value("${mcp.parallel.threads:8}") int threads,
+            @Value("${mcp.parallel.queue-capacity:64}") int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("mcp-action-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Folds old conversation turns into the rolling summary after the response has been sent
+    @Bean(name = "conversationSummaryExecutor", destroyMethod = "shutdownNow")
+    public ExecutorService conversationSummaryExecutor(
+            @Value("${conversation.context.summary-threads:1}") int threads,
+            @Value("${conversation.context.summary-queue-capacity:32}") int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("conversation-summary-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Fires OrchestrationContext deadlines
+    @Bean(name = "orchestrationScheduler", destroyMethod = "shutdownNow")
+    public ScheduledExecutorService orchestrationScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("orchestration-deadline-"));
+    }
+}
@@ -0,0 +1,101 @@
+package assistant.config;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Updates;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Conversation storage layout: a small header per conversation in conversation_history and one
+ * document per turn in conversation_turns. Indexes are created here (Boot leaves auto index
+ * creation off) so the TTL can come from configuration.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "conversation.store.type", havingValue = "mongo", matchIfMissing = true)
+public class MongoConfig {
+    private static final String HEADERS = "conversation_history";
+    private static final String TURNS = "conversation_turns";
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${conversation.ttl:P90D}")
+    private Duration ttl;
+
+    public MongoConfig(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void prepareConversationCollections() {
+        // The unique (conversationId, turn) index comes first: the migration upserts against it
+        ensureIndex(TURNS, new Index().on("conversationId", Sort.Direction.ASC).on("turn", Sort.Direction.ASC).unique());
+        migrateEmbeddedTurns();
+        ensureIndex(TURNS, new Index().on("timestamp", Sort.Direction.ASC).expire(ttl));
+        ensureIndex(HEADERS, new Index().on("conversationId", Sort.Direction.ASC).unique());
+        ensureIndex(HEADERS, new Index().on("updatedAt", Sort.Direction.ASC).expire(ttl));
+    }
+
+    /**
+     * Moves turns still embedded in old header documents into conversation_turns, renumbered 1..n.
+     * Turns are upserted by (conversationId, turn) and the embedded array is only removed afterwards,
+     * so a run interrupted part way is simply repeated on the next start without duplicating turns.
+     */
+    private void migrateEmbeddedTurns() {
+        MongoCollection<Document> headers = mongoTemplate.getCollection(HEADERS);
+        MongoCollection<Document> turns = mongoTemplate.getCollection(TURNS);
+        ReplaceOptions upsert = new ReplaceOptions().upsert(true);
+        int migrated = 0;
+        for (Document legacy : headers.find(Filters.exists("history"))) {
+            List<Document> embedded = legacy.getList("history", Document.class, List.of());
+            String conversationId = legacy.getString("conversationId");
+            List<ReplaceOneModel<Document>> writes = new ArrayList<>();
+            for (int i = 0; i < embedded.size(); i++) {
+                Document turn = embedded.get(i);
+                turn.remove("_id"); // an upsert that matches an existing turn must not try to change its _id
+                turn.put("conversationId", conversationId);
+                turn.put("turn", i + 1);
+                writes.add(new ReplaceOneModel<>(
+                        Filters.and(Filters.eq("conversationId", conversationId), Filters.eq("turn", i + 1)), turn, upsert));
+            }
+            if (!writes.isEmpty()) {
+                turns.bulkWrite(writes);
+            }
+            headers.updateOne(Filters.eq("_id", legacy.get("_id")), Updates.combine(
+                    Updates.unset("history"),
+                    Updates.set("turnCount", embedded.size()),
+                    Updates.set("updatedAt", new Date())));
+            migrated++;
+        }
+        if (migrated > 0) {
+            log.info("Moved embedded turns of {} conversation(s) into {}", migrated, TURNS);
+        }
+    }
+
+    private void ensureIndex(String collection, Index index) {
+        IndexOperations indexOps = mongoTemplate.indexOps(collection);
+        try {
+            indexOps.ensureIndex(index);
+        } catch (Exception e) {
+            // e.g. the TTL changed: Mongo refuses to redefine an index with different options
+            log.warn("Could not create index {} on {}: {}", index.getIndexKeys(), collection, e.getMessage());
+        }
+    }
+}
@@ -1,18 +1,37 @@
 package assistant.controller;
 
 import assistant.mcp.McpActionDispatcher;
+import assistant.service.ConversationCache;
+import assistant.service.GeneratedQueryExecutor;
+import assistant.service.OrchestrationContext;
 import assistant.service.QueryExecutionService;
+import assistant.service.QueryResultCache;
+import assistant.service.TraceFileExporter;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 @CrossOrigin(origins = "http://localhost:9090/index.html") // or *
 @RestController
@@ -21,11 +40,30 @@ public class AIAssistantController {
 
     private final QueryExecutionService queryService;
     private final McpActionDispatcher mcpActionDispatcher;
+    private final QueryResultCache queryResultCache;
+    private final GeneratedQueryExecutor generatedQueryExecutor;
+    private final ConversationCache conversationCache;
+    private final ExecutorService requestExecutor;
+    private final ObjectProvider<TraceFileExporter> traceFileExporter;
+
+    // Outlives orchestration.timeout so the pipeline normally answers (possibly partially) first
+    @Value("${orchestration.request-timeout:PT100S}")
+    private Duration requestTimeout;
 
     public AIAssistantController(QueryExecutionService queryExecutionService,
-                                 McpActionDispatcher mcpActionDispatcher) {
+                                 McpActionDispatcher mcpActionDispatcher,
+                                 QueryResultCache queryResultCache,
+                                 GeneratedQueryExecutor generatedQueryExecutor,
+                                 ConversationCache conversationCache,
+                                 @Qualifier("assistantRequestExecutor") ExecutorService requestExecutor,
+                                 ObjectProvider<TraceFileExporter> traceFileExporter) {
         this.queryService = queryExecutionService;
         this.mcpActionDispatcher = mcpActionDispatcher;
+        this.queryResultCache = queryResultCache;
+        this.generatedQueryExecutor = generatedQueryExecutor;
+        this.conversationCache = conversationCache;
+        this.requestExecutor = requestExecutor;
+        this.traceFileExporter = traceFileExporter;
     }
 
     @PostMapping("/test/{workOrderId}")
@@ -34,23 +72,99 @@ public class AIAssistantController {
         return ResponseEntity.ok(result);
     }
 
+    // Async so a request timeout or client disconnect cancels the pipeline, including the running statement
     @PostMapping
-    public ResponseEntity<String> queryDatabase(
+    public DeferredResult<ResponseEntity<String>> queryDatabase(
 //            @RequestParam String query,
             @RequestParam(required = false) String conversationId, // Allow optional conversationId for new chats
             @RequestBody String query) {
-        if (conversationId == null || conversationId.isEmpty()) {
-            conversationId = UUID.randomUUID().toString(); // Generate new if not provided
+        String id = (conversationId == null || conversationId.isEmpty())
+                ? UUID.randomUUID().toString() // Generate new if not provided
+                : conversationId;
+        OrchestrationContext context = queryService.newOrchestrationContext();
+        DeferredResult<ResponseEntity<String>> deferred = new DeferredResult<>(requestTimeout.toMillis());
+        deferred.onTimeout(() -> {
+            context.cancel("request timed out");
+            deferred.setResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Error: Request timed out."));
+        });
+        // Tomcat reports a dropped connection on an async request as an error
+        deferred.onError(e -> context.cancel("client disconnected"));
+        try {
+            CompletableFuture.supplyAsync(() -> queryService.processNaturalLanguageQuery(query, id, context), requestExecutor)
+                    .whenComplete((response, error) -> deferred.setResult(error == null
+                            ? ResponseEntity.ok(response)
+                            : ResponseEntity.internalServerError().body("Error: " + error.getMessage())));
+        } catch (RejectedExecutionException e) {
+            deferred.setResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Error: Too many requests in progress."));
+        }
+        return deferred;
+    }
+
+    // Streams the rows of a (checked) SELECT as NDJSON, ending with a {"_summary": ...} line
+    @PostMapping(value = "/query/stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> streamQuery(@RequestBody Map<String, Object> request) {
+        String sql = (String) request.get("sql");
+        String check = queryService.validateQuery(sql);
+        if (!check.startsWith("Query Check Passed")) {
+            return ResponseEntity.badRequest().body(out -> out.write(check.getBytes(StandardCharsets.UTF_8)));
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(out -> queryService.streamQuery(sql, out));
+    }
+
+    @GetMapping("/cache/stats")
+    public ResponseEntity<?> cacheStats() {
+        return ResponseEntity.ok(queryResultCache.tableHitRatios());
+    }
+
+    @GetMapping("/conversations/cache/stats")
+    public ResponseEntity<?> conversationCacheStats() {
+        return ResponseEntity.ok(conversationCache.stats());
+    }
+
+    // Server-side prepared statement reuse per SQL fingerprint
+    @GetMapping("/plans/stats")
+    public ResponseEntity<?> planStats() {
+        return ResponseEntity.ok(generatedQueryExecutor.preparedStatementStats());
+    }
+
+    // Folded stacks of a recent request, heaviest first; the trace id is in the log line of each request
+    @GetMapping("/traces/{traceId}")
+    public ResponseEntity<?> trace(@PathVariable String traceId) {
+        TraceFileExporter exporter = traceFileExporter.getIfAvailable();
+        if (exporter == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "tracing.file.enabled is false"));
         }
-        String response = queryService.processNaturalLanguageQuery(query, conversationId);
-        return ResponseEntity.ok(response);
+        TraceFileExporter.TraceSummary summary = exporter.getTrace(traceId);
+        return summary != null ? ResponseEntity.ok(summary) : ResponseEntity.notFound().build();
+    }
+
+    // For writers that know what they changed, ahead of the scheduled pg_stat_user_tables check
+    @PostMapping("/cache/invalidate/{table}")
+    public ResponseEntity<?> invalidateCache(@PathVariable String table) {
+        return ResponseEntity.ok(Map.of("table", table, "invalidated", queryResultCache.invalidateTable(table)));
     }
 
     @PostMapping("/mcp")
-    public ResponseEntity<?> executeMcpAction(@RequestBody Map<String, Object> request) {
-        String action = (String) request.get("action");
-        Map<String, Object> params = (Map<String, Object>) request.get("params");
-        Object result = mcpActionDispatcher.dispatch(action, params);
+    public ResponseEntity<?> executeMcpAction(@RequestBody JsonNode request) {
+        String action = request.path("action").asText(null);
+        Object result = mcpActionDispatcher.dispatch(action, request.path("params"), OrchestrationContext.unbounded());
         return ResponseEntity.ok(result);
     }
+
+    // {"actions": [{"id": "gen", "action": "generate_sql", "params": {...}},
+    //              {"id": "plan", "action": "explain_query", "params": {"sql": {"$ref": "gen"}}},
+    //              {"id": "run", "action": "execute_query", "params": {"sql": {"$ref": "gen"}}}],
+    //  "stopOnError": true, "sequential": false}  -- plan and run both wait for gen, then run concurrently
+    @PostMapping("/mcp/batch")
+    public ResponseEntity<?> executeMcpBatch(@RequestBody JsonNode request) {
+        try {
+            return ResponseEntity.ok(Map.of("results", mcpActionDispatcher.dispatchBatch(request.path("actions"),
+                    request.path("stopOnError").asBoolean(true), request.path("sequential").asBoolean(false),
+                    OrchestrationContext.unbounded())));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
 }
@@ -0,0 +1,170 @@
+package assistant.controller;
+
+import assistant.mcp.McpJsonRpcHandler;
+import assistant.mcp.McpSession;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * MCP streamable HTTP transport (protocol 2025-03-26) on a single /mcp endpoint. initialize issues an
+ * Mcp-Session-Id that every later POST must carry. A POST with requests is answered with an SSE stream
+ * (progress notifications, then the response) when the client accepts text/event-stream, otherwise with
+ * plain JSON; a POST with only notifications gets 202. There is no server-initiated stream, so GET is
+ * 405. As the spec asks, a dropped connection does not cancel the request; notifications/cancelled does.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/mcp")
+public class McpServerController {
+    private static final String SESSION_HEADER = "Mcp-Session-Id";
+    private static final Set<String> LOCAL_HOSTS = Set.of("localhost", "127.0.0.1", "[::1]", "::1");
+
+    private final McpJsonRpcHandler handler;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${orchestration.request-timeout:PT100S}")
+    private Duration requestTimeout;
+
+    // Browsers send Origin; other origins than these (and localhost) are refused against DNS rebinding
+    @Value("${mcp.server.allowed-origins:}")
+    private List<String> allowedOrigins;
+
+    public McpServerController(McpJsonRpcHandler handler) {
+        this.handler = handler;
+    }
+
+    @PostMapping
+    public ResponseEntity<ResponseBodyEmitter> post(@RequestBody String body,
+                                                    @RequestHeader(value = SESSION_HEADER, required = false) String sessionId,
+                                                    @RequestHeader(value = "Accept", required = false) String accept,
+                                                    @RequestHeader(value = "Origin", required = false) String origin) {
+        long received = System.nanoTime();
+        if (!originAllowed(origin)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        JsonNode message;
+        try {
+            message = objectMapper.readTree(body);
+        } catch (JsonProcessingException e) {
+            return json(HttpStatus.BAD_REQUEST, handler.parseError(e.getOriginalMessage()));
+        }
+
+        McpSession session;
+        if (McpJsonRpcHandler.isInitialize(message)) {
+            try {
+                session = handler.openSession("http");
+            } catch (IllegalStateException e) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+            }
+        } else if (sessionId == null) {
+            return ResponseEntity.badRequest().build();
+        } else {
+            session = handler.getSession(sessionId);
+            if (session == null) {
+                return ResponseEntity.notFound().build(); // expired or deleted: the client starts over with initialize
+            }
+        }
+
+        if (McpJsonRpcHandler.hasNoRequests(message)) {
+            handler.handle(session, message, received, notification -> { });
+            return ResponseEntity.accepted().build();
+        }
+        if (accept != null && accept.contains(MediaType.TEXT_EVENT_STREAM_VALUE)) {
+            SseEmitter emitter = new SseEmitter(requestTimeout.toMillis());
+            handler.handle(session, message, received, notification -> sendEvent(emitter, notification))
+                    .whenComplete((response, error) -> {
+                        if (response != null) {
+                            sendEvent(emitter, response);
+                        }
+                        emitter.complete();
+                    });
+            return ResponseEntity.ok()
+                    .header(SESSION_HEADER, session.getId())
+                    .contentType(MediaType.TEXT_EVENT_STREAM)
+                    .body(emitter);
+        }
+        // Plain JSON: no channel for progress, so notifications are dropped
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(requestTimeout.toMillis());
+        handler.handle(session, message, received, notification -> { })
+                .whenComplete((response, error) -> {
+                    try {
+                        if (response != null) {
+                            emitter.send(objectMapper.writeValueAsString(response), MediaType.APPLICATION_JSON);
+                        }
+                        emitter.complete();
+                    } catch (IOException | IllegalStateException e) {
+                        log.debug("MCP client went away before its response: {}", e.getMessage());
+                    }
+                });
+        return ResponseEntity.ok()
+                .header(SESSION_HEADER, session.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(emitter);
+    }
+
+    @GetMapping
+    public ResponseEntity<Void> openStream() {
+        return ResponseEntity.status(HttpStatus.METHOD_NOT_ALLOWED).build();
+    }
+
+    @DeleteMapping
+    public ResponseEntity<Void> closeSession(@RequestHeader(value = SESSION_HEADER, required = false) String sessionId) {
+        if (sessionId == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        return handler.closeSession(sessionId) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    private boolean originAllowed(String origin) {
+        if (origin == null || allowedOrigins.contains(origin)) {
+            return true;
+        }
+        try {
+            String host = URI.create(origin).getHost();
+            return host != null && LOCAL_HOSTS.contains(host);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private ResponseEntity<ResponseBodyEmitter> json(HttpStatus status, JsonNode body) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter();
+        try {
+            emitter.send(objectMapper.writeValueAsString(body), MediaType.APPLICATION_JSON);
+            emitter.complete();
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+        return ResponseEntity.status(status).contentType(MediaType.APPLICATION_JSON).body(emitter);
+    }
+
+    // Events from worker threads; SseEmitter serializes sends itself
+    private void sendEvent(SseEmitter emitter, JsonNode message) {
+        try {
+            emitter.send(SseEmitter.event().name("message").data(objectMapper.writeValueAsString(message), MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            log.debug("MCP SSE stream closed early: {}", e.getMessage());
+        }
+    }
+}
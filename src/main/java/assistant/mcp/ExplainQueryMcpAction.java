@@ -1,12 +1,15 @@
 package assistant.mcp;
 
+import assistant.service.OrchestrationContext;
 import assistant.service.QueryExecutionService;
 import org.springframework.stereotype.Component;
 
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
 @Component
-public class ExplainQueryMcpAction implements McpAction {
+public class ExplainQueryMcpAction implements McpAction<ExplainQueryMcpAction.Params> {
     private final QueryExecutionService queryService;
 
     public ExplainQueryMcpAction(QueryExecutionService queryService) {
@@ -19,8 +22,30 @@ public class ExplainQueryMcpAction implements McpAction {
     }
 
     @Override
-    public Object execute(Map<String, Object> params) {
-        String sql = (String) params.get("sql");
-        return queryService.explainQuery(sql);
+    public String getDescription() {
+        return "EXPLAIN a read-only SELECT and return the plan with its cost and row estimates";
+    }
+
+    public record Params(String sql) {
+    }
+
+    @Override
+    public Class<Params> getParamsType() {
+        return Params.class;
+    }
+
+    @Override
+    public Map<String, Object> getParameterSchema() {
+        return McpParameterSchema.sqlOnly();
+    }
+
+    @Override
+    public Object execute(Params params, OrchestrationContext context) {
+        return queryService.explainQuery(params.sql(), context);
+    }
+
+    @Override
+    public CompletionStage<Object> executeAsync(Params params, OrchestrationContext context, Executor executor) {
+        return queryService.explainQueryAsync(params.sql(), context);
     }
 }
@@ -1,11 +1,13 @@
 package assistant.mcp;
 
+import assistant.service.OrchestrationContext;
 import assistant.service.QueryExecutionService;
 import org.springframework.stereotype.Component;
+import java.util.List;
 import java.util.Map;
 
 @Component
-public class GenerateSqlMcpAction implements McpAction {
+public class GenerateSqlMcpAction implements McpAction<GenerateSqlMcpAction.Params> {
     private final QueryExecutionService queryService;
 
     public GenerateSqlMcpAction(QueryExecutionService queryService) {
@@ -18,20 +20,41 @@ public class GenerateSqlMcpAction implements McpAction {
     }
 
     @Override
-    public Object execute(Map<String, Object> params) {
-        String userQuery = (String) params.get("userQuery");
-        String failureReason = (String) params.getOrDefault("failureReason", null);
-        String databaseSchema = (String) params.getOrDefault("databaseSchema", null);
-        String ragContext = (String) params.getOrDefault("ragContext", null);
-        String previousContext = (String) params.getOrDefault("previousContext", null);
-        String conversationId = (String) params.getOrDefault("conversationId", null);
+    public String getDescription() {
+        return "Generate a PostgreSQL SELECT for a natural-language question against the database schema";
+    }
+
+    public record Params(String userQuery, String failureReason, String databaseSchema, String ragContext,
+                         String previousContext, String conversationId) {
+    }
+
+    @Override
+    public Class<Params> getParamsType() {
+        return Params.class;
+    }
+
+    @Override
+    public Map<String, Object> getParameterSchema() {
+        return McpParameterSchema.object(Map.of(
+                "userQuery", McpParameterSchema.string(),
+                "failureReason", McpParameterSchema.nullableString(),
+                "databaseSchema", McpParameterSchema.nullableString(),
+                "ragContext", McpParameterSchema.nullableString(),
+                "previousContext", McpParameterSchema.nullableString(),
+                "conversationId", McpParameterSchema.nullableString()
+        ), List.of("userQuery"));
+    }
+
+    @Override
+    public Object execute(Params params, OrchestrationContext context) {
         return queryService.generateSql(
-                userQuery,
-                failureReason,
-                databaseSchema,
-                ragContext,
-                previousContext,
-                conversationId
+                params.userQuery(),
+                params.failureReason(),
+                params.databaseSchema(),
+                params.ragContext(),
+                params.previousContext(),
+                params.conversationId(),
+                context
         );
     }
 }
@@ -1,8 +1,41 @@
 package assistant.mcp;
 
+import assistant.service.OrchestrationContext;
+
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
-public interface McpAction {
+/**
+ * An action the orchestrator (or a client of /assistant/mcp) can invoke. Params arrive as JSON and
+ * are bound to {@link #getParamsType()}, usually a record nested in the action, by a reader
+ * McpActionRegistry builds once at registration.
+ */
+public interface McpAction<P> {
     String getName();
-    Object execute(Map<String, Object> params);
+
+    // Shown to MCP clients in tools/list
+    default String getDescription() {
+        return getName();
+    }
+
+    Class<P> getParamsType();
+
+    // Actions that call the LLM or the database use the context to honour the deadline and cancellation
+    Object execute(P params, OrchestrationContext context);
+
+    /**
+     * Non-blocking variant used by McpActionDispatcher to run independent actions side by side. The
+     * default runs {@link #execute} on the dispatcher's bounded executor; actions whose work already
+     * has an executor of its own (generated SQL) override it so no extra thread waits on that work.
+     */
+    default CompletionStage<Object> executeAsync(P params, OrchestrationContext context, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> execute(params, context), executor);
+    }
+
+    // JSON schema of the params object; passed to Ollama as the structured-output format
+    default Map<String, Object> getParameterSchema() {
+        return Map.of("type", "object");
+    }
 }
@@ -7,9 +7,9 @@ import java.util.List;
 @Configuration
 public class McpActionConfig {
     private final McpActionRegistry registry;
-    private final List<McpAction> actions;
+    private final List<McpAction<?>> actions;
 
-    public McpActionConfig(McpActionRegistry registry, List<McpAction> actions) {
+    public McpActionConfig(McpActionRegistry registry, List<McpAction<?>> actions) {
         this.registry = registry;
         this.actions = actions;
     }
@@ -1,21 +1,311 @@
 package assistant.mcp;
 
+import assistant.service.OrchestrationCancelledException;
+import assistant.service.OrchestrationContext;
+import assistant.service.RequestTracer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.tracing.Span;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+@Slf4j
 @Service
 public class McpActionDispatcher {
+    private static final String REF = "$ref";
+
     private final McpActionRegistry registry;
+    private final Executor executor;
+    private final MeterRegistry meterRegistry;
+    private final RequestTracer requestTracer;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${mcp.batch.max-actions:20}")
+    private int maxBatchActions;
 
-    public McpActionDispatcher(McpActionRegistry registry) {
+    public McpActionDispatcher(McpActionRegistry registry, @Qualifier("mcpActionExecutor") ExecutorService executor,
+                               MeterRegistry meterRegistry, RequestTracer requestTracer) {
         this.registry = registry;
+        this.executor = executor;
+        this.meterRegistry = meterRegistry;
+        this.requestTracer = requestTracer;
     }
 
     public Object dispatch(String actionName, Map<String, Object> params) {
-        McpAction action = registry.getAction(actionName);
+        return dispatch(actionName, objectMapper.valueToTree(params), OrchestrationContext.unbounded());
+    }
+
+    public Object dispatch(String actionName, JsonNode params, OrchestrationContext context) {
+        McpAction<?> action = registry.getAction(actionName);
         if (action == null) {
             throw new IllegalArgumentException("Unknown MCP action: " + actionName);
         }
-        return action.execute(params);
+        context.checkActive();
+        Timer.Sample sample = Timer.start(meterRegistry);
+        RequestTracer.Scoped span = requestTracer.open("mcp.action " + actionName, "mcp.action", actionName);
+        Object result = null;
+        Throwable error = null;
+        try {
+            result = execute(action, registry.bindParams(actionName, params), context);
+            return result;
+        } catch (RuntimeException e) {
+            error = e;
+            span.span().error(e);
+            throw e;
+        } finally {
+            span.close();
+            recordDispatch(sample, actionName, result, error);
+        }
+    }
+
+    // Binds synchronously; binding problems and a full executor surface as a failed stage
+    public CompletionStage<Object> dispatchAsync(String actionName, JsonNode params, OrchestrationContext context) {
+        try {
+            McpAction<?> action = registry.getAction(actionName);
+            if (action == null) {
+                throw new IllegalArgumentException("Unknown MCP action: " + actionName);
+            }
+            context.checkActive();
+            Timer.Sample sample = Timer.start(meterRegistry);
+            // Ends when the action completes, wherever that is; its own spans (statements) nest under it
+            Span span = requestTracer.start("mcp.action " + actionName, "mcp.action", actionName);
+            CompletionStage<Object> result;
+            try {
+                result = requestTracer.inScope(span, () -> executeAsync(action, registry.bindParams(actionName, params),
+                        context, requestTracer.propagating(executor)));
+            } catch (RuntimeException e) {
+                RequestTracer.end(span, e);
+                recordDispatch(sample, actionName, null, e);
+                throw e;
+            }
+            return result.whenComplete((value, error) -> {
+                RequestTracer.end(span, error);
+                recordDispatch(sample, actionName, value, error);
+            });
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Runs an ordered list of {@code {"id", "action", "params", "after"}} steps in one call. A params
+     * value of {@code {"$ref": "<id>"}} is replaced by that earlier step's result, and
+     * {@code {"$ref": "<id>#/json/pointer"}} by part of it, e.g. {@code {"sql": {"$ref": "gen"}}} after a
+     * generate_sql step with id "gen". A step starts once the steps it references or lists in "after"
+     * have finished; steps without such dependencies run concurrently on the MCP executor. With
+     * sequential=true every step waits for the one before it. Returns one entry per step, in the
+     * declared order, with either its result or its error. Once a step has failed, steps not yet
+     * started are skipped unless stopOnError is false; a step depending on a failed one fails either way.
+     */
+    public List<Map<String, Object>> dispatchBatch(JsonNode steps, boolean stopOnError, boolean sequential,
+                                                   OrchestrationContext context) {
+        if (steps == null || !steps.isArray() || steps.isEmpty()) {
+            throw new IllegalArgumentException("actions must be a non-empty array");
+        }
+        if (steps.size() > maxBatchActions) {
+            throw new IllegalArgumentException("at most " + maxBatchActions + " actions per batch");
+        }
+        Map<String, CompletableFuture<StepOutcome>> byId = new HashMap<>();
+        List<CompletableFuture<StepOutcome>> outcomes = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        for (int i = 0; i < steps.size(); i++) {
+            JsonNode step = steps.get(i);
+            String id = step.path("id").asText("" + i);
+            String actionName = step.path("action").asText(null);
+            ids.add(id);
+
+            CompletableFuture<StepOutcome> outcome;
+            Set<String> dependencies = new LinkedHashSet<>();
+            try {
+                if (actionName == null) {
+                    throw new IllegalArgumentException("step " + id + " has no action");
+                }
+                if (byId.containsKey(id)) {
+                    throw new IllegalArgumentException("duplicate step id " + id);
+                }
+                collectReferences(step.path("params"), dependencies);
+                step.path("after").forEach(after -> dependencies.add(after.asText()));
+                for (String dependency : dependencies) {
+                    if (!byId.containsKey(dependency)) {
+                        throw new IllegalArgumentException("step " + id + " depends on " + dependency
+                                + ", which is not an earlier step");
+                    }
+                }
+                List<CompletableFuture<StepOutcome>> waitFor = new ArrayList<>();
+                dependencies.forEach(dependency -> waitFor.add(byId.get(dependency)));
+                if (sequential && !outcomes.isEmpty()) {
+                    waitFor.add(outcomes.get(outcomes.size() - 1));
+                }
+                JsonNode params = step.path("params");
+                outcome = CompletableFuture.allOf(waitFor.toArray(CompletableFuture[]::new))
+                        .thenCompose(ignored -> runStep(id, actionName, params, dependencies, byId, stopOnError, failed, context));
+            } catch (IllegalArgumentException e) {
+                failed.set(true);
+                outcome = CompletableFuture.completedFuture(StepOutcome.failed(e.getMessage()));
+            }
+            byId.put(id, outcome);
+            outcomes.add(outcome);
+        }
+
+        context.await(CompletableFuture.allOf(outcomes.toArray(CompletableFuture[]::new)));
+        List<Map<String, Object>> responses = new ArrayList<>();
+        for (int i = 0; i < outcomes.size(); i++) {
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("id", ids.get(i));
+            response.put("action", steps.get(i).path("action").asText(null));
+            outcomes.get(i).join().describeInto(response);
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    // Never completes exceptionally, so one failing step does not short-circuit allOf for the others
+    private CompletableFuture<StepOutcome> runStep(String id, String actionName, JsonNode params, Set<String> dependencies,
+                                                   Map<String, CompletableFuture<StepOutcome>> byId, boolean stopOnError,
+                                                   AtomicBoolean failed, OrchestrationContext context) {
+        Map<String, JsonNode> inputs = new HashMap<>();
+        for (String dependency : dependencies) {
+            StepOutcome input = byId.get(dependency).join(); // already complete
+            if (input.failedOrReportedError()) {
+                failed.set(true);
+                return CompletableFuture.completedFuture(StepOutcome.failed("depends on failed step " + dependency));
+            }
+            inputs.put(dependency, input.tree());
+        }
+        if (stopOnError && failed.get()) {
+            return CompletableFuture.completedFuture(StepOutcome.SKIPPED);
+        }
+        CompletionStage<Object> result;
+        try {
+            result = dispatchAsync(actionName, resolveReferences(params.deepCopy(), inputs), context);
+        } catch (IllegalArgumentException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.handle((value, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                log.info("MCP batch step {} ({}) failed: {}", id, actionName, cause.getMessage());
+                failed.set(true);
+                return StepOutcome.failed(cause.getMessage());
+            }
+            JsonNode tree;
+            try {
+                tree = objectMapper.valueToTree(value);
+            } catch (IllegalArgumentException e) {
+                tree = objectMapper.getNodeFactory().textNode(String.valueOf(value)); // e.g. a driver type Jackson cannot map
+            }
+            // Actions report failures as {"error": ...} rather than throwing
+            if (tree.has("error")) {
+                failed.set(true);
+                return new StepOutcome(value, null, null, false);
+            }
+            return new StepOutcome(value, tree, null, false);
+        }).toCompletableFuture();
+    }
+
+    // Step ids referenced by {"$ref": ...} anywhere in the params
+    private static void collectReferences(JsonNode node, Set<String> ids) {
+        if (node.isObject() && node.size() == 1 && node.has(REF) && node.get(REF).isTextual()) {
+            String ref = node.get(REF).asText();
+            int hash = ref.indexOf('#');
+            ids.add(hash < 0 ? ref : ref.substring(0, hash));
+            return;
+        }
+        node.forEach(child -> collectReferences(child, ids));
+    }
+
+    // Replaces every {"$ref": ...} object in the tree with the referenced result (or part of it)
+    private JsonNode resolveReferences(JsonNode node, Map<String, JsonNode> results) {
+        if (node.isObject() && node.size() == 1 && node.has(REF) && node.get(REF).isTextual()) {
+            String ref = node.get(REF).asText();
+            int hash = ref.indexOf('#');
+            String id = hash < 0 ? ref : ref.substring(0, hash);
+            JsonNode result = results.get(id);
+            if (result == null) {
+                throw new IllegalArgumentException("reference to unknown step " + id);
+            }
+            JsonNode target = hash < 0 ? result : result.at(ref.substring(hash + 1));
+            if (target.isMissingNode()) {
+                throw new IllegalArgumentException("reference " + ref + " does not match the result of step " + id);
+            }
+            return target;
+        }
+        if (node.isObject()) {
+            ObjectNode object = (ObjectNode) node;
+            List<String> names = new ArrayList<>();
+            object.fieldNames().forEachRemaining(names::add);
+            for (String name : names) {
+                object.set(name, resolveReferences(object.get(name), results));
+            }
+        } else if (node.isArray()) {
+            ArrayNode array = (ArrayNode) node;
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, resolveReferences(array.get(i), results));
+            }
+        }
+        return node;
+    }
+
+    // Per action, by how it ended: ok, error (thrown), reported_error ({"error": ...}) or cancelled
+    private void recordDispatch(Timer.Sample sample, String actionName, Object result, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        String outcome = cause instanceof OrchestrationCancelledException ? "cancelled"
+                : cause != null ? "error"
+                : result instanceof Map<?, ?> map && map.containsKey("error") ? "reported_error"
+                : "ok";
+        sample.stop(meterRegistry.timer("assistant.mcp.action", "action", actionName, "outcome", outcome));
+    }
+
+    private static <P> Object execute(McpAction<P> action, Object params, OrchestrationContext context) {
+        return action.execute(action.getParamsType().cast(params), context);
+    }
+
+    private static <P> CompletionStage<Object> executeAsync(McpAction<P> action, Object params, OrchestrationContext context,
+                                                            Executor executor) {
+        return action.executeAsync(action.getParamsType().cast(params), context, executor);
+    }
+
+    // tree is the result as JSON for later $refs; null when the step failed or reported an error
+    private record StepOutcome(Object result, JsonNode tree, String error, boolean skipped) {
+        static final StepOutcome SKIPPED = new StepOutcome(null, null, null, true);
+
+        static StepOutcome failed(String error) {
+            return new StepOutcome(null, null, error, false);
+        }
+
+        boolean failedOrReportedError() {
+            return error != null || skipped || tree == null;
+        }
+
+        void describeInto(Map<String, Object> response) {
+            if (skipped) {
+                response.put("skipped", true);
+            } else if (error != null) {
+                response.put("error", error);
+            } else {
+                response.put("result", result);
+            }
+        }
     }
 }
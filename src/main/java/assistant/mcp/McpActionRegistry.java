@@ -1,18 +1,49 @@
 package assistant.mcp;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.springframework.stereotype.Component;
+
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
 @Component
 public class McpActionRegistry {
-    private final Map<String, McpAction> actions = new HashMap<>();
+    private final Map<String, McpAction<?>> actions = new HashMap<>();
+    private final Map<String, ObjectReader> paramReaders = new HashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public void register(McpAction action) {
+    public void register(McpAction<?> action) {
         actions.put(action.getName(), action);
+        // Built once per action; the record deserializer is resolved here (eager fetch), not per call.
+        // The LLM sometimes adds fields of its own, which are ignored rather than failing the step
+        paramReaders.put(action.getName(), objectMapper.readerFor(action.getParamsType())
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES));
     }
 
-    public McpAction getAction(String name) {
+    public McpAction<?> getAction(String name) {
         return actions.get(name);
     }
-}
\ No newline at end of file
+
+    public Map<String, McpAction<?>> getActions() {
+        return Map.copyOf(actions);
+    }
+
+    // Binds a params object straight from the JSON tree to the action's params type
+    public Object bindParams(String actionName, JsonNode params) {
+        ObjectReader reader = paramReaders.get(actionName);
+        if (reader == null) {
+            throw new IllegalArgumentException("Unknown MCP action: " + actionName);
+        }
+        try {
+            return reader.readValue(params == null || params.isNull() ? objectMapper.createObjectNode() : params);
+        } catch (IOException e) {
+            String reason = e instanceof JsonProcessingException json ? json.getOriginalMessage() : e.getMessage();
+            throw new IllegalArgumentException("Invalid params for " + actionName + ": " + reason);
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package assistant.mcp;
+
+import assistant.service.OrchestrationCancelledException;
+import assistant.service.OrchestrationContext;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Model Context Protocol server over JSON-RPC 2.0, independent of the transport: McpStdioTransport and
+ * McpServerController hand it parsed messages and send back what it returns. Each registered
+ * McpAction is a tool; tools/call runs through McpActionDispatcher on the MCP executor, so a client can
+ * pipeline several calls over one connection and responses come back as they finish, matched by id.
+ * A call that carries {@code _meta.progressToken} gets notifications/progress while execute_query
+ * reads rows, and notifications/cancelled aborts the call like an orchestration deadline would.
+ */
+@Slf4j
+@Service
+public class McpJsonRpcHandler {
+    public static final String PROTOCOL_VERSION = "2025-03-26";
+    private static final Set<String> SUPPORTED_VERSIONS = Set.of("2025-03-26", "2024-11-05");
+    private static final Set<String> METHODS = Set.of("initialize", "ping", "tools/list", "tools/call",
+            "notifications/initialized", "notifications/cancelled");
+    private static final String CANCELLED_BY_CLIENT = "cancelled by client";
+
+    static final int PARSE_ERROR = -32700;
+    static final int INVALID_REQUEST = -32600;
+    static final int METHOD_NOT_FOUND = -32601;
+    static final int INVALID_PARAMS = -32602;
+    static final int INTERNAL_ERROR = -32603;
+
+    private final McpActionRegistry registry;
+    private final McpActionDispatcher dispatcher;
+    private final MeterRegistry meterRegistry;
+    private final ScheduledExecutorService scheduler;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, McpSession> sessions = new ConcurrentHashMap<>();
+
+    // Each tools/call gets the same wall-clock budget as a whole orchestration run
+    @Value("${orchestration.timeout:PT90S}")
+    private Duration callTimeout;
+
+    @Value("${mcp.server.session-idle-timeout:PT30M}")
+    private Duration sessionIdleTimeout;
+
+    @Value("${mcp.server.max-sessions:100}")
+    private int maxSessions;
+
+    // A session that has not completed the handshake (notifications/initialized) by then is dropped, so bare
+    // initialize posts cannot hold every slot for the whole idle timeout
+    @Value("${mcp.server.handshake-timeout:PT30S}")
+    private Duration handshakeTimeout;
+
+    public McpJsonRpcHandler(McpActionRegistry registry, McpActionDispatcher dispatcher, MeterRegistry meterRegistry,
+                             @Qualifier("orchestrationScheduler") ScheduledExecutorService scheduler) {
+        this.registry = registry;
+        this.dispatcher = dispatcher;
+        this.meterRegistry = meterRegistry;
+        this.scheduler = scheduler;
+        meterRegistry.gaugeMapSize("assistant.mcp.sessions", Tags.empty(), sessions);
+    }
+
+    // HTTP sessions start with initialize and end with DELETE, after sitting idle or when the handshake is never completed
+    public McpSession openSession(String transport) {
+        if (sessions.size() >= maxSessions) {
+            expireIdleSessions();
+        }
+        if (sessions.size() >= maxSessions) {
+            throw new IllegalStateException("too many MCP sessions");
+        }
+        McpSession session = new McpSession(UUID.randomUUID().toString(), transport);
+        sessions.put(session.getId(), session);
+        return session;
+    }
+
+    public McpSession getSession(String id) {
+        McpSession session = id == null ? null : sessions.get(id);
+        if (session != null) {
+            session.touch();
+        }
+        return session;
+    }
+
+    public boolean closeSession(String id) {
+        McpSession session = sessions.remove(id);
+        if (session == null) {
+            return false;
+        }
+        session.close("session closed");
+        return true;
+    }
+
+    // Expired sessions end like a DELETE: their in-flight calls are cancelled
+    @Scheduled(fixedDelayString = "${mcp.server.session-sweep-interval:PT1M}")
+    public void expireIdleSessions() {
+        sessions.values().removeIf(session -> {
+            String reason;
+            if (!session.isReady() && session.inFlightCount() == 0 && session.age().compareTo(handshakeTimeout) >= 0) {
+                reason = "handshake not completed";
+            } else if (session.idleFor().compareTo(sessionIdleTimeout) >= 0) {
+                reason = "session idle";
+            } else {
+                return false;
+            }
+            log.info("Expiring MCP session {} ({}): {}", session.getId(), session.getClientName(), reason);
+            session.close(reason);
+            return true;
+        });
+    }
+
+    // True when every message in it is a notification or a response, i.e. nothing will be answered
+    public static boolean hasNoRequests(JsonNode message) {
+        if (message.isArray()) {
+            for (JsonNode element : message) {
+                if (!hasNoRequests(element)) {
+                    return false;
+                }
+            }
+            return !message.isEmpty();
+        }
+        return !message.has("method") || !message.has("id");
+    }
+
+    public static boolean isInitialize(JsonNode message) {
+        return message.isObject() && "initialize".equals(message.path("method").asText());
+    }
+
+    public JsonNode parseError(String reason) {
+        return error(NullNode.getInstance(), PARSE_ERROR, "Parse error: " + reason);
+    }
+
+    /**
+     * Handles one message or a batch (JSON array). Completes with the response to send back, an array
+     * for a batch, or null when nothing is to be sent (notifications, responses, cancelled calls).
+     * Notifications produced while it runs go to {@code notifications}, possibly from worker threads.
+     */
+    public CompletableFuture<JsonNode> handle(McpSession session, JsonNode message, long receivedNanos,
+                                              Consumer<JsonNode> notifications) {
+        session.touch();
+        if (!message.isArray()) {
+            return handleMessage(session, message, receivedNanos, notifications);
+        }
+        if (message.isEmpty()) {
+            return CompletableFuture.completedFuture(error(NullNode.getInstance(), INVALID_REQUEST, "Empty batch"));
+        }
+        List<CompletableFuture<JsonNode>> responses = new ArrayList<>();
+        message.forEach(element -> responses.add(handleMessage(session, element, receivedNanos, notifications)));
+        return CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).thenApply(ignored -> {
+            ArrayNode batch = objectMapper.createArrayNode();
+            responses.forEach(response -> {
+                if (response.join() != null) {
+                    batch.add(response.join());
+                }
+            });
+            return batch.isEmpty() ? null : batch;
+        });
+    }
+
+    private CompletableFuture<JsonNode> handleMessage(McpSession session, JsonNode message, long receivedNanos,
+                                                      Consumer<JsonNode> notifications) {
+        if (!message.isObject() || !"2.0".equals(message.path("jsonrpc").asText())) {
+            return CompletableFuture.completedFuture(error(NullNode.getInstance(), INVALID_REQUEST, "Not a JSON-RPC 2.0 message"));
+        }
+        String method = message.path("method").asText(null);
+        if (method == null) {
+            // A response; this server sends no requests of its own, so there is nothing to match it to
+            return CompletableFuture.completedFuture(null);
+        }
+        JsonNode id = message.get("id");
+        JsonNode params = message.path("params");
+        if (id == null) {
+            notification(session, method, params);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<JsonNode> result;
+        try {
+            if (!session.isInitialized() && !"initialize".equals(method) && !"ping".equals(method)) {
+                throw new McpRpcException(INVALID_REQUEST, "Session not initialized");
+            }
+            result = switch (method) {
+                case "initialize" -> CompletableFuture.completedFuture(initialize(session, params));
+                case "ping" -> CompletableFuture.completedFuture(objectMapper.createObjectNode());
+                case "tools/list" -> CompletableFuture.completedFuture(listTools());
+                case "tools/call" -> callTool(session, id, params, receivedNanos, notifications);
+                default -> throw new McpRpcException(METHOD_NOT_FOUND, "Method not found: " + method);
+            };
+        } catch (McpRpcException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+
+        String methodTag = METHODS.contains(method) ? method : "unknown";
+        return result.handle((value, error) -> {
+            Throwable cause = unwrap(error);
+            JsonNode response;
+            if (cause == null) {
+                response = value == null ? null : success(id, value);
+            } else if (cause instanceof McpRpcException rpc) {
+                response = error(id, rpc.code, rpc.getMessage());
+            } else {
+                log.warn("MCP {} failed", method, cause);
+                response = error(id, INTERNAL_ERROR, String.valueOf(cause.getMessage()));
+            }
+            String outcome = response == null ? "cancelled" : response.has("error") ? "error" : "ok";
+            Timer.builder("assistant.mcp.rpc")
+                    .tag("method", methodTag)
+                    .tag("transport", session.getTransport())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - receivedNanos, TimeUnit.NANOSECONDS);
+            return response;
+        });
+    }
+
+    private void notification(McpSession session, String method, JsonNode params) {
+        switch (method) {
+            case "notifications/initialized" -> {
+                session.ready();
+                log.debug("MCP session {} initialized", session.getId());
+            }
+            case "notifications/cancelled" -> {
+                JsonNode requestId = params.get("requestId");
+                String reason = params.path("reason").asText(null);
+                if (requestId != null) {
+                    session.cancelCall(requestId.toString(),
+                            CANCELLED_BY_CLIENT + (reason != null ? ": " + reason : ""));
+                }
+            }
+            default -> log.debug("Ignoring MCP notification {}", method);
+        }
+    }
+
+    private JsonNode initialize(McpSession session, JsonNode params) {
+        String requested = params.path("protocolVersion").asText(null);
+        String version = requested != null && SUPPORTED_VERSIONS.contains(requested) ? requested : PROTOCOL_VERSION;
+        String clientName = params.path("clientInfo").path("name").asText(null);
+        session.initialized(version, clientName);
+        log.info("MCP session {} over {} initialized by {} (protocol {})",
+                session.getId(), session.getTransport(), clientName, version);
+
+        ObjectNode result = objectMapper.createObjectNode();
+        result.put("protocolVersion", version);
+        result.putObject("capabilities").putObject("tools").put("listChanged", false);
+        result.putObject("serverInfo").put("name", "duplo-assistant").put("version", "0.0.1");
+        result.put("instructions", "Tools over the work-order database: generate_sql turns a question into SQL, "
+                + "check_query and explain_query vet it, execute_query runs it.");
+        return result;
+    }
+
+    private JsonNode listTools() {
+        ArrayNode tools = objectMapper.createArrayNode();
+        registry.getActions().values().stream()
+                .sorted(Comparator.comparing(McpAction::getName))
+                .forEach(action -> {
+                    ObjectNode tool = tools.addObject();
+                    tool.put("name", action.getName());
+                    tool.put("description", action.getDescription());
+                    tool.set("inputSchema", objectMapper.valueToTree(action.getParameterSchema()));
+                });
+        ObjectNode result = objectMapper.createObjectNode();
+        result.set("tools", tools);
+        return result;
+    }
+
+    private CompletableFuture<JsonNode> callTool(McpSession session, JsonNode id, JsonNode params, long receivedNanos,
+                                                 Consumer<JsonNode> notifications) {
+        String name = params.path("name").asText(null);
+        if (name == null || registry.getAction(name) == null) {
+            throw new McpRpcException(INVALID_PARAMS, "Unknown tool: " + name);
+        }
+        OrchestrationContext context = new OrchestrationContext(Integer.MAX_VALUE, callTimeout);
+        String requestKey = id.toString();
+        if (!session.startCall(requestKey, context)) {
+            throw new McpRpcException(INVALID_REQUEST, "Request id " + requestKey + " is already in use");
+        }
+        JsonNode progressToken = params.path("_meta").get("progressToken");
+        if (progressToken != null) {
+            // The spec requires progress to increase; a bound statement retried with inline literals starts over
+            AtomicLong reported = new AtomicLong(-1);
+            context.setProgressListener((progress, message) -> {
+                long previous = reported.get();
+                if (progress > previous && reported.compareAndSet(previous, progress)) {
+                    notifications.accept(progress(progressToken, progress, message));
+                }
+            });
+        }
+        ScheduledFuture<?> deadline = scheduler.schedule(() -> context.cancel("deadline exceeded"),
+                callTimeout.toMillis(), TimeUnit.MILLISECONDS);
+
+        long started = System.nanoTime();
+        return dispatcher.dispatchAsync(name, params.path("arguments"), context).toCompletableFuture()
+                .handle((value, error) -> {
+                    long finished = System.nanoTime();
+                    deadline.cancel(false);
+                    session.endCall(requestKey);
+                    Throwable cause = unwrap(error);
+                    // A cancelled request gets no response at all
+                    String cancelReason = context.getCancelReason();
+                    if (cancelReason != null && cancelReason.startsWith(CANCELLED_BY_CLIENT)) {
+                        return null;
+                    }
+                    if (cause instanceof IllegalArgumentException) {
+                        throw new McpRpcException(INVALID_PARAMS, cause.getMessage());
+                    }
+                    JsonNode result = toolResult(value, cause);
+                    // Everything but the action itself: parsing, session bookkeeping, binding is counted
+                    // with the action, plus encoding the result; transports add their own write time
+                    Timer.builder("assistant.mcp.rpc.overhead")
+                            .tag("tool", name)
+                            .tag("transport", session.getTransport())
+                            .register(meterRegistry)
+                            .record((started - receivedNanos) + (System.nanoTime() - finished), TimeUnit.NANOSECONDS);
+                    return result;
+                });
+    }
+
+    // Tool failures are results with isError=true so the calling model sees them, not protocol errors
+    private JsonNode toolResult(Object value, Throwable error) {
+        String text;
+        boolean isError;
+        if (error != null) {
+            text = error instanceof OrchestrationCancelledException ? "Cancelled: " + error.getMessage() : String.valueOf(error.getMessage());
+            isError = true;
+        } else {
+            text = value instanceof String string ? string : toJson(value);
+            // Actions report failures as {"error": ...} rather than throwing
+            isError = value instanceof Map<?, ?> map && map.containsKey("error");
+        }
+        ObjectNode result = objectMapper.createObjectNode();
+        result.putArray("content").addObject().put("type", "text").put("text", text);
+        result.put("isError", isError);
+        return result;
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            return String.valueOf(value); // e.g. a driver type Jackson cannot map
+        }
+    }
+
+    private JsonNode progress(JsonNode token, long progress, String message) {
+        ObjectNode notification = objectMapper.createObjectNode();
+        notification.put("jsonrpc", "2.0");
+        notification.put("method", "notifications/progress");
+        ObjectNode params = notification.putObject("params");
+        params.set("progressToken", token);
+        params.put("progress", progress);
+        params.put("message", message);
+        return notification;
+    }
+
+    private JsonNode success(JsonNode id, JsonNode result) {
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("jsonrpc", "2.0");
+        response.set("id", id);
+        response.set("result", result);
+        return response;
+    }
+
+    private JsonNode error(JsonNode id, int code, String message) {
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("jsonrpc", "2.0");
+        response.set("id", id);
+        response.putObject("error").put("code", code).put("message", message);
+        return response;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    static class McpRpcException extends RuntimeException {
+        final int code;
+
+        McpRpcException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package assistant.mcp;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Minimal JSON-schema subset (type, properties, required) used both as the Ollama "format"
+// option and to validate the params the LLM produced for an action.
+public final class McpParameterSchema {
+
+    private McpParameterSchema() {
+    }
+
+    public static Map<String, Object> object(Map<String, Object> properties, List<String> required) {
+        Map<String, Object> schema = new LinkedHashMap<>();
+        schema.put("type", "object");
+        schema.put("properties", properties);
+        schema.put("required", required);
+        return schema;
+    }
+
+    public static Map<String, Object> string() {
+        return Map.of("type", "string");
+    }
+
+    public static Map<String, Object> nullableString() {
+        return Map.of("type", List.of("string", "null"));
+    }
+
+    public static Map<String, Object> array() {
+        return Map.of("type", "array");
+    }
+
+    public static Map<String, Object> sqlOnly() {
+        return object(Map.of("sql", string()), List.of("sql"));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static List<String> validate(Map<String, Object> schema, JsonNode value) {
+        List<String> problems = new ArrayList<>();
+        if (value == null || !value.isObject()) {
+            problems.add("params must be a JSON object");
+            return problems;
+        }
+        List<String> required = (List<String>) schema.getOrDefault("required", List.of());
+        for (String name : required) {
+            if (!value.hasNonNull(name)) {
+                problems.add("missing required param '" + name + "'");
+            }
+        }
+        Map<String, Object> properties = (Map<String, Object>) schema.getOrDefault("properties", Map.of());
+        properties.forEach((name, propertySchema) -> {
+            JsonNode field = value.get(name);
+            if (field != null && !matchesType(((Map<String, Object>) propertySchema).get("type"), field)) {
+                problems.add("param '" + name + "' must be of type " + ((Map<String, Object>) propertySchema).get("type"));
+            }
+        });
+        return problems;
+    }
+
+    public static boolean matchesType(Object type, JsonNode node) {
+        if (type == null) {
+            return true;
+        }
+        if (type instanceof List<?> types) {
+            return types.stream().anyMatch(t -> matchesType(t, node));
+        }
+        return switch (type.toString()) {
+            case "string" -> node.isTextual();
+            case "array" -> node.isArray();
+            case "object" -> node.isObject();
+            case "number" -> node.isNumber();
+            case "integer" -> node.isIntegralNumber();
+            case "boolean" -> node.isBoolean();
+            case "null" -> node.isNull();
+            default -> true;
+        };
+    }
+}
@@ -0,0 +1,103 @@
+package assistant.mcp;
+
+import assistant.service.OrchestrationContext;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One MCP client: the process on the other end of stdio, or an HTTP client identified by its
+ * Mcp-Session-Id. Tracks the tools/call requests in flight so notifications/cancelled (or the end of
+ * the session) can cancel them.
+ */
+public class McpSession {
+    private final String id;
+    private final String transport;
+    private final Map<String, OrchestrationContext> inFlight = new ConcurrentHashMap<>();
+    private final long openedNanos = System.nanoTime();
+    private volatile boolean initialized;
+    private volatile boolean ready;
+    private volatile String protocolVersion;
+    private volatile String clientName;
+    private volatile long lastActiveNanos = System.nanoTime();
+
+    public McpSession(String id, String transport) {
+        this.id = id;
+        this.transport = transport;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    public String getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public String getClientName() {
+        return clientName;
+    }
+
+    void initialized(String protocolVersion, String clientName) {
+        this.protocolVersion = protocolVersion;
+        this.clientName = clientName;
+        this.initialized = true;
+    }
+
+    // The client sent notifications/initialized, completing the handshake
+    public boolean isReady() {
+        return ready;
+    }
+
+    void ready() {
+        ready = true;
+    }
+
+    public Duration age() {
+        return Duration.ofNanos(System.nanoTime() - openedNanos);
+    }
+
+    void touch() {
+        lastActiveNanos = System.nanoTime();
+    }
+
+    public Duration idleFor() {
+        return inFlight.isEmpty() ? Duration.ofNanos(System.nanoTime() - lastActiveNanos) : Duration.ZERO;
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    // False when a request with the same id is still running
+    boolean startCall(String requestKey, OrchestrationContext context) {
+        return inFlight.putIfAbsent(requestKey, context) == null;
+    }
+
+    void endCall(String requestKey) {
+        inFlight.remove(requestKey);
+        touch();
+    }
+
+    boolean cancelCall(String requestKey, String reason) {
+        OrchestrationContext context = inFlight.get(requestKey);
+        if (context == null) {
+            return false;
+        }
+        context.cancel(reason);
+        return true;
+    }
+
+    public void close(String reason) {
+        inFlight.values().forEach(context -> context.cancel(reason));
+    }
+}
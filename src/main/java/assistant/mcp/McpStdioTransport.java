@@ -0,0 +1,94 @@
+package assistant.mcp;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * MCP stdio transport: newline-delimited JSON-RPC on stdin, responses and notifications on stdout.
+ * The reader thread only parses and hands off, so a client can keep several tools/call requests in
+ * flight and gets each response when it is ready. stdout belongs to the protocol from here on; anything
+ * else printing to System.out goes to stderr instead (run with the mcp-stdio profile to keep the banner
+ * and console log off it during startup too). The application exits when the client closes stdin.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "mcp.server.stdio.enabled", havingValue = "true")
+public class McpStdioTransport {
+    private final McpJsonRpcHandler handler;
+    private final ConfigurableApplicationContext applicationContext;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final McpSession session = new McpSession("stdio", "stdio");
+    private PrintStream out;
+
+    public McpStdioTransport(McpJsonRpcHandler handler, ConfigurableApplicationContext applicationContext) {
+        this.handler = handler;
+        this.applicationContext = applicationContext;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        out = new PrintStream(System.out, false, StandardCharsets.UTF_8);
+        System.setOut(System.err);
+        Thread reader = new Thread(this::readLoop, "mcp-stdio");
+        reader.setDaemon(true);
+        reader.start();
+        log.info("MCP server listening on stdio");
+    }
+
+    private void readLoop() {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                long received = System.nanoTime();
+                JsonNode message;
+                try {
+                    message = objectMapper.readTree(line);
+                } catch (JsonProcessingException e) {
+                    write(handler.parseError(e.getOriginalMessage()));
+                    continue;
+                }
+                handler.handle(session, message, received, this::write)
+                        .whenComplete((response, error) -> {
+                            if (response != null) {
+                                write(response);
+                            } else if (error != null) {
+                                log.warn("MCP stdio message failed", error);
+                            }
+                        });
+            }
+        } catch (IOException e) {
+            log.warn("MCP stdio read failed: {}", e.getMessage());
+        }
+        log.info("MCP client closed stdin, shutting down");
+        session.close("client disconnected");
+        System.exit(SpringApplication.exit(applicationContext));
+    }
+
+    // One message per line; responses finish on worker threads, so writes must not interleave
+    private synchronized void write(JsonNode message) {
+        try {
+            out.print(objectMapper.writeValueAsString(message));
+            out.print('\n');
+            out.flush();
+        } catch (JsonProcessingException e) {
+            log.warn("Could not encode MCP message: {}", e.getMessage());
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package assistant.mcp;
 
+import assistant.service.OrchestrationContext;
 import assistant.service.QueryExecutionService;
 import org.springframework.stereotype.Component;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
 @Component
-public class QueryMcpAction implements McpAction {
+public class QueryMcpAction implements McpAction<QueryMcpAction.Params> {
     private final QueryExecutionService queryService;
 
     public QueryMcpAction(QueryExecutionService queryService) {
@@ -18,8 +21,30 @@ public class QueryMcpAction implements McpAction {
     }
 
     @Override
-    public Object execute(Map<String, Object> params) {
-        String sql = (String) params.get("sql");
-        return queryService.executeQuery(sql);
+    public String getDescription() {
+        return "Run a read-only SELECT and return its rows (capped; a truncated result says so)";
+    }
+
+    public record Params(String sql) {
+    }
+
+    @Override
+    public Class<Params> getParamsType() {
+        return Params.class;
+    }
+
+    @Override
+    public Map<String, Object> getParameterSchema() {
+        return McpParameterSchema.sqlOnly();
+    }
+
+    @Override
+    public Object execute(Params params, OrchestrationContext context) {
+        return queryService.executeQuery(params.sql(), context);
+    }
+
+    @Override
+    public CompletionStage<Object> executeAsync(Params params, OrchestrationContext context, Executor executor) {
+        return queryService.executeQueryAsync(params.sql(), context, executor);
     }
 }
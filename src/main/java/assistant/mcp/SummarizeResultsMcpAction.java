@@ -1,5 +1,6 @@
 package assistant.mcp;
 
+import assistant.service.OrchestrationContext;
 import assistant.service.QueryExecutionService;
 import org.springframework.stereotype.Component;
 
@@ -7,7 +8,7 @@ import java.util.List;
 import java.util.Map;
 
 @Component
-public class SummarizeResultsMcpAction implements McpAction {
+public class SummarizeResultsMcpAction implements McpAction<SummarizeResultsMcpAction.Params> {
     private final QueryExecutionService queryService;
 
     public SummarizeResultsMcpAction(QueryExecutionService queryService) {
@@ -20,8 +21,25 @@ public class SummarizeResultsMcpAction implements McpAction {
     }
 
     @Override
-    public Object execute(Map<String, Object> params) {
-        List<Map<String, Object>> results = (List<Map<String, Object>>) params.get("results");
-        return queryService.summarizeResults(results);
+    public String getDescription() {
+        return "Summarize query result rows in plain language";
     }
-}
\ No newline at end of file
+
+    public record Params(List<Map<String, Object>> results) {
+    }
+
+    @Override
+    public Class<Params> getParamsType() {
+        return Params.class;
+    }
+
+    @Override
+    public Map<String, Object> getParameterSchema() {
+        return McpParameterSchema.object(Map.of("results", McpParameterSchema.array()), List.of("results"));
+    }
+
+    @Override
+    public Object execute(Params params, OrchestrationContext context) {
+        return queryService.summarizeResults(params.results());
+    }
+}
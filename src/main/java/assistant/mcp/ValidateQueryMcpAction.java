@@ -1,12 +1,13 @@
 package assistant.mcp;
 
+import assistant.service.OrchestrationContext;
 import assistant.service.QueryExecutionService;
 import org.springframework.stereotype.Component;
 
 import java.util.Map;
 
 @Component
-public class ValidateQueryMcpAction implements McpAction {
+public class ValidateQueryMcpAction implements McpAction<ValidateQueryMcpAction.Params> {
     private final QueryExecutionService queryService;
 
     public ValidateQueryMcpAction(QueryExecutionService queryService) {
@@ -19,8 +20,25 @@ public class ValidateQueryMcpAction implements McpAction {
     }
 
     @Override
-    public Object execute(Map<String, Object> params) {
-        String sql = (String) params.get("sql");
-        return queryService.validateQuery(sql);
+    public String getDescription() {
+        return "Check that SQL is a single read-only SELECT over known tables";
+    }
+
+    public record Params(String sql) {
+    }
+
+    @Override
+    public Class<Params> getParamsType() {
+        return Params.class;
+    }
+
+    @Override
+    public Map<String, Object> getParameterSchema() {
+        return McpParameterSchema.sqlOnly();
+    }
+
+    @Override
+    public Object execute(Params params, OrchestrationContext context) {
+        return queryService.validateQuery(params.sql());
     }
 }
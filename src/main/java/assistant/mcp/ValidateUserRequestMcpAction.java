@@ -1,11 +1,13 @@
 package assistant.mcp;
 
+import assistant.service.OrchestrationContext;
 import assistant.service.QueryExecutionService;
 import org.springframework.stereotype.Component;
+import java.util.List;
 import java.util.Map;
 
 @Component
-public class ValidateUserRequestMcpAction implements McpAction {
+public class ValidateUserRequestMcpAction implements McpAction<ValidateUserRequestMcpAction.Params> {
     private final QueryExecutionService queryService;
 
     public ValidateUserRequestMcpAction(QueryExecutionService queryService) {
@@ -18,8 +20,25 @@ public class ValidateUserRequestMcpAction implements McpAction {
     }
 
     @Override
-    public Object execute(Map<String, Object> params) {
-        String userQuery = (String) params.get("userQuery");
-        return queryService.validateUserRequest(userQuery);
+    public String getDescription() {
+        return "Check whether a question can be answered from the database";
+    }
+
+    public record Params(String userQuery) {
+    }
+
+    @Override
+    public Class<Params> getParamsType() {
+        return Params.class;
+    }
+
+    @Override
+    public Map<String, Object> getParameterSchema() {
+        return McpParameterSchema.object(Map.of("userQuery", McpParameterSchema.string()), List.of("userQuery"));
+    }
+
+    @Override
+    public Object execute(Params params, OrchestrationContext context) {
+        return queryService.validateUserRequest(params.userQuery());
     }
 }
@@ -2,12 +2,14 @@ package assistant.model;
 
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 
+// Small header document; turns live in conversation_turns and only the most recent ones are loaded into history
 @Data
 @Document(collection = "conversation_history")
 public class ConversationHistory {
@@ -16,6 +18,11 @@ public class ConversationHistory {
     private String conversationId; // Unique ID for a conversation session
     private String userId; // Optional, to link conversations to users
     private Instant createdAt;
+    private Instant updatedAt; // TTL anchor for the header
+    private int turnCount; // Turns appended so far; turn numbers are allocated from it atomically
+    private String summary; // Rolling summary of turns 1..summarizedThroughTurn (ConversationContextManager)
+    private int summarizedThroughTurn;
+    @Transient
     private List<ConversationTurn> history = new ArrayList<>();
 
     // Getters and Setters
@@ -27,7 +34,24 @@ public class ConversationHistory {
     public void setUserId(String userId) { this.userId = userId; }
     public Instant getCreatedAt() { return createdAt; }
     public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
+    public Instant getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
+    public int getTurnCount() { return turnCount; }
+    public void setTurnCount(int turnCount) { this.turnCount = turnCount; }
+    public String getSummary() { return summary; }
+    public void setSummary(String summary) { this.summary = summary; }
+    public int getSummarizedThroughTurn() { return summarizedThroughTurn; }
+    public void setSummarizedThroughTurn(int summarizedThroughTurn) { this.summarizedThroughTurn = summarizedThroughTurn; }
     public List<ConversationTurn> getHistory() { return history; }
     public void setHistory(List<ConversationTurn> history) { this.history = history; }
+
+    // Adds a not-yet-persisted turn with a provisional number; appendTurns assigns the final one
+    public ConversationTurn addTurn(ConversationTurn turn) {
+        turnCount++;
+        turn.setTurn(turnCount);
+        turn.setConversationId(conversationId);
+        history.add(turn);
+        return turn;
+    }
 }
 
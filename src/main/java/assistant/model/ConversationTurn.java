@@ -1,11 +1,18 @@
 package assistant.model;
 
 import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 
+// One document per turn, indexed on (conversationId, turn) with a TTL on timestamp (see MongoConfig)
 @Data
+@Document(collection = "conversation_turns")
 public class ConversationTurn {
+    @Id
+    private String id;
+    private String conversationId;
     private int turn;
     private String userQuery;
     private String generatedSql; // Can be a list if multiple queries
@@ -13,8 +20,13 @@ public class ConversationTurn {
     private String llmFormattedResponse;
     private Instant timestamp;
     private String contextFromPreviousTurn; // Relevant data/summaries from previous turns
+    private KeysetCursor keysetCursor; // Set on execute_query turns whose result can be continued by keyset
 
     // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public String getConversationId() { return conversationId; }
+    public void setConversationId(String conversationId) { this.conversationId = conversationId; }
     public int getTurn() { return turn; }
     public void setTurn(int turn) { this.turn = turn; }
     public String getUserQuery() { return userQuery; }
@@ -29,4 +41,6 @@ public class ConversationTurn {
     public void setTimestamp(Instant timestamp) { this.timestamp = timestamp; }
     public String getContextFromPreviousTurn() { return contextFromPreviousTurn; }
     public void setContextFromPreviousTurn(String contextFromPreviousTurn) { this.contextFromPreviousTurn = contextFromPreviousTurn; }
+    public KeysetCursor getKeysetCursor() { return keysetCursor; }
+    public void setKeysetCursor(KeysetCursor keysetCursor) { this.keysetCursor = keysetCursor; }
 }
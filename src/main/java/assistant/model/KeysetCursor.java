@@ -0,0 +1,20 @@
+package assistant.model;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Where the last page of a turn's result ended, so "show more" can continue with a keyset predicate
+@Data
+public class KeysetCursor {
+    private String baseSql; // the executed SELECT without LIMIT/OFFSET
+    private String sqlFingerprint;
+    private List<String> orderColumns = new ArrayList<>(); // result column labels, in ORDER BY order
+    private List<Boolean> descending = new ArrayList<>();
+    private List<String> lastValues = new ArrayList<>(); // stored as text; numeric ones are rendered unquoted
+    private List<Boolean> numeric = new ArrayList<>();
+    private int ties; // rows already served whose sort key equals lastValues
+    private int pageSize;
+    private long rowsServed;
+}
@@ -7,6 +7,7 @@ import org.springframework.stereotype.Repository;
 import java.util.Optional;
 
 @Repository
-public interface ConversationHistoryRepository extends MongoRepository<ConversationHistory, String> {
+public interface ConversationHistoryRepository extends MongoRepository<ConversationHistory, String>,
+        ConversationHistoryRepositoryCustom {
     Optional<ConversationHistory> findByConversationId(String conversationId);
 }
@@ -0,0 +1,28 @@
+package assistant.repository;
+
+import assistant.model.ConversationHistory;
+import assistant.model.ConversationTurn;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface ConversationHistoryRepositoryCustom {
+
+    /**
+     * Inserts the turns into conversation_turns, numbering them from the header's turnCount, which is
+     * incremented atomically (upserting a new header). Returns the BSON bytes of the inserted turns.
+     */
+    long appendTurns(ConversationHistory history, List<ConversationTurn> turns);
+
+    // Same, reserving numbers only on the first attempt for a batch; turns already stored by an earlier attempt are skipped
+    long appendTurns(ConversationHistory history, List<ConversationTurn> turns, TurnReservation reservation);
+
+    // Header plus its last {@code lastTurns} turns (oldest first), without the raw result payloads
+    Optional<ConversationHistory> loadRecent(String conversationId, int lastTurns);
+
+    // Turns fromTurn..toTurn inclusive, oldest first, without the raw result payloads
+    List<ConversationTurn> loadTurns(String conversationId, int fromTurn, int toTurn);
+
+    // Replaces the rolling summary only if nobody advanced it past expectedThroughTurn meanwhile
+    boolean updateSummary(String conversationId, int expectedThroughTurn, String summary, int summarizedThroughTurn);
+}
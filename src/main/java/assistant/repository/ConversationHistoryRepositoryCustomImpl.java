@@ -0,0 +1,133 @@
+package assistant.repository;
+
+import assistant.model.ConversationHistory;
+import assistant.model.ConversationTurn;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+@Slf4j
+public class ConversationHistoryRepositoryCustomImpl implements ConversationHistoryRepositoryCustom {
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry meterRegistry;
+
+    public ConversationHistoryRepositoryCustomImpl(MongoTemplate mongoTemplate, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public long appendTurns(ConversationHistory history, List<ConversationTurn> turns) {
+        return appendTurns(history, turns, new TurnReservation());
+    }
+
+    @Override
+    public long appendTurns(ConversationHistory history, List<ConversationTurn> turns, TurnReservation reservation) {
+        if (turns.isEmpty()) {
+            return 0;
+        }
+        if (!reservation.isReserved()) {
+            ConversationHistory header = mongoTemplate.findAndModify(
+                    byConversationId(history.getConversationId()),
+                    new Update()
+                            .inc("turnCount", turns.size())
+                            .set("updatedAt", Instant.now())
+                            .setOnInsert("createdAt", history.getCreatedAt())
+                            .setOnInsert("userId", history.getUserId()),
+                    FindAndModifyOptions.options().upsert(true).returnNew(true),
+                    ConversationHistory.class);
+            // Final numbers come from the header, so concurrent requests on one conversation never collide
+            reservation.reserve(header.getTurnCount() - turns.size() + 1, header.getId(), header.getTurnCount());
+        }
+        long appendedBytes = 0;
+        for (int i = 0; i < turns.size(); i++) {
+            ConversationTurn turn = turns.get(i);
+            turn.setConversationId(history.getConversationId());
+            turn.setTurn(reservation.getFirstTurn() + i);
+            appendedBytes += bsonSize(turn);
+        }
+        insertTurns(turns);
+        history.setId(reservation.getHeaderId());
+        history.setTurnCount(reservation.getTurnCount());
+
+        meterRegistry.summary("assistant.mongo.write.bytes", "mode", "append").record(appendedBytes);
+        log.info("Appended {} turn(s) to conversation {}: {} bytes written",
+                turns.size(), history.getConversationId(), appendedBytes);
+        return appendedBytes;
+    }
+
+    // Unordered, so a retry still inserts the turns an earlier attempt did not get to; the ones it did
+    // store fail on the unique (conversationId, turn) index, which counts as written
+    private void insertTurns(List<ConversationTurn> turns) {
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ConversationTurn.class).insert(turns).execute();
+        } catch (BulkOperationException e) {
+            if (e.getErrors().stream().anyMatch(error -> error.getCode() != DUPLICATE_KEY)) {
+                throw e;
+            }
+            meterRegistry.counter("assistant.mongo.append.duplicates").increment(e.getErrors().size());
+            log.info("{} turn(s) were already stored by an earlier attempt", e.getErrors().size());
+        }
+    }
+
+    @Override
+    public Optional<ConversationHistory> loadRecent(String conversationId, int lastTurns) {
+        ConversationHistory header = mongoTemplate.findOne(byConversationId(conversationId), ConversationHistory.class);
+        if (header == null) {
+            return Optional.empty();
+        }
+        Query recent = byConversationId(conversationId)
+                .with(Sort.by(Sort.Direction.DESC, "turn"))
+                .limit(lastTurns);
+        // Served by the (conversationId, turn) index; the raw result JSON is never needed for prompts
+        recent.fields().exclude("rawDbResult").exclude("contextFromPreviousTurn");
+        List<ConversationTurn> turns = new ArrayList<>(mongoTemplate.find(recent, ConversationTurn.class));
+        Collections.reverse(turns);
+        header.setHistory(turns);
+        return Optional.of(header);
+    }
+
+    @Override
+    public List<ConversationTurn> loadTurns(String conversationId, int fromTurn, int toTurn) {
+        Query range = Query.query(Criteria.where("conversationId").is(conversationId).and("turn").gte(fromTurn).lte(toTurn))
+                .with(Sort.by(Sort.Direction.ASC, "turn"));
+        range.fields().exclude("rawDbResult").exclude("contextFromPreviousTurn");
+        return mongoTemplate.find(range, ConversationTurn.class);
+    }
+
+    @Override
+    public boolean updateSummary(String conversationId, int expectedThroughTurn, String summary, int summarizedThroughTurn) {
+        Query current = Query.query(Criteria.where("conversationId").is(conversationId)
+                .and("summarizedThroughTurn").is(expectedThroughTurn));
+        Update update = new Update().set("summary", summary).set("summarizedThroughTurn", summarizedThroughTurn);
+        return mongoTemplate.updateFirst(current, update, ConversationHistory.class).getModifiedCount() > 0;
+    }
+
+    private static Query byConversationId(String conversationId) {
+        return Query.query(Criteria.where("conversationId").is(conversationId));
+    }
+
+    private long bsonSize(Object entity) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(entity, document);
+        return new RawBsonDocument(document, new DocumentCodec()).getByteBuffer().remaining();
+    }
+}
@@ -0,0 +1,45 @@
+package assistant.repository;
+
+import assistant.model.ConversationHistory;
+import assistant.model.ConversationTurn;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Where conversations are persisted. conversation.store.type selects the backend: "mongo" (default,
+ * {@link MongoConversationStore}) or "log" ({@link LogConversationStore}, embedded files, no database).
+ * Both follow the same contract:
+ * <ul>
+ *   <li>appendTurns numbers the turns after the stored turnCount, atomically per conversation, creates
+ *       the conversation if needed and updates the given history's id and turnCount</li>
+ *   <li>loaded turns are oldest first and come without rawDbResult and contextFromPreviousTurn</li>
+ *   <li>updateSummary is a compare-and-set on summarizedThroughTurn</li>
+ *   <li>conversations not written for conversation.ttl disappear</li>
+ * </ul>
+ */
+public interface ConversationStore {
+
+    // Header only; history is empty
+    Optional<ConversationHistory> findByConversationId(String conversationId);
+
+    // Header plus its last lastTurns turns
+    Optional<ConversationHistory> loadRecent(String conversationId, int lastTurns);
+
+    // Turns fromTurn..toTurn inclusive
+    List<ConversationTurn> loadTurns(String conversationId, int fromTurn, int toTurn);
+
+    // Returns the bytes written
+    long appendTurns(ConversationHistory history, List<ConversationTurn> turns);
+
+    /**
+     * For callers that retry a failed append of the same batch (write-behind): the numbers reserved by
+     * the first attempt are kept in {@code reservation} and reused, so a retry neither renumbers the
+     * turns nor counts them twice. Backends whose append is all-or-nothing need nothing more.
+     */
+    default long appendTurns(ConversationHistory history, List<ConversationTurn> turns, TurnReservation reservation) {
+        return appendTurns(history, turns);
+    }
+
+    boolean updateSummary(String conversationId, int expectedThroughTurn, String summary, int summarizedThroughTurn);
+}
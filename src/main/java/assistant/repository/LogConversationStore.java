@@ -0,0 +1,751 @@
+package assistant.repository;
+
+import assistant.model.ConversationHistory;
+import assistant.model.ConversationTurn;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded conversation store for deployments without MongoDB: append-only segment files plus an
+ * in-memory index, rebuilt by scanning the segments at startup.
+ *
+ * <p>Record layout: {@code int payloadLength | int crc32(type + payload) | byte type | payload}, the
+ * payload being the JSON of a turn or of a conversation header. Every append writes the new turns
+ * and the updated header as one contiguous write, so a batch is either fully recovered or (torn
+ * tail after a crash) truncated away. The index keeps each conversation's header in memory and the
+ * file position of every turn; turns are read back with positional reads.
+ *
+ * <p>Appends are serialized; fsync is batched (group commit): an appender that finds an fsync in
+ * progress waits for the next one, which then covers every batch written meanwhile. Segments roll at
+ * segment-size. Compaction drops conversations past conversation.ttl and copies the live records of
+ * sealed segments whose live fraction fell below compaction-live-ratio (superseded headers make up
+ * most garbage) into the active segment, then deletes the old file.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "conversation.store.type", havingValue = "log")
+public class LogConversationStore implements ConversationStore {
+    private static final byte HEADER = 1;
+    private static final byte TURN = 2;
+    private static final int RECORD_OVERHEAD = 4 + 4 + 1;
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{10})\\.log");
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private final MeterRegistry meterRegistry;
+    private final Path directory;
+    private final long segmentBytes;
+    private final boolean fsync;
+    private final Duration ttl;
+    private final double compactionLiveRatio;
+
+    private final NavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, Conversation> index = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private Segment active; // guarded by writeLock
+    private long writtenBatches; // guarded by writeLock
+
+    private final Object syncLock = new Object();
+    private long durableBatches; // guarded by syncLock
+    private boolean syncing; // guarded by syncLock
+
+    public LogConversationStore(MeterRegistry meterRegistry,
+                                @Value("${conversation.store.log.directory:./data/conversations}") Path directory,
+                                @Value("${conversation.store.log.segment-size:64MB}") DataSize segmentSize,
+                                @Value("${conversation.store.log.fsync:true}") boolean fsync,
+                                @Value("${conversation.ttl:P90D}") Duration ttl,
+                                @Value("${conversation.store.log.compaction-live-ratio:0.5}") double compactionLiveRatio)
+            throws IOException {
+        this.meterRegistry = meterRegistry;
+        this.directory = directory;
+        this.segmentBytes = segmentSize.toBytes();
+        this.fsync = fsync;
+        this.ttl = ttl;
+        this.compactionLiveRatio = compactionLiveRatio;
+        Files.createDirectories(directory);
+        recover();
+        Gauge.builder("assistant.conversation.store.log.segments", segments, Map::size).register(meterRegistry);
+        Gauge.builder("assistant.conversation.store.log.bytes", this, s -> s.totalBytes()).baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("assistant.conversation.store.log.live.bytes", this, s -> s.liveBytes()).baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("assistant.conversation.store.log.conversations", index, Map::size).register(meterRegistry);
+    }
+
+    @Override
+    public Optional<ConversationHistory> findByConversationId(String conversationId) {
+        Conversation conversation = live(conversationId);
+        return conversation == null ? Optional.empty() : Optional.of(conversation.headerCopy());
+    }
+
+    @Override
+    public Optional<ConversationHistory> loadRecent(String conversationId, int lastTurns) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            Conversation conversation = live(conversationId);
+            if (conversation == null) {
+                return Optional.empty();
+            }
+            ConversationHistory header = conversation.headerCopy();
+            int to = header.getTurnCount();
+            header.setHistory(readTurns(conversation, Math.max(1, to - lastTurns + 1), to));
+            return Optional.of(header);
+        } finally {
+            sample.stop(meterRegistry.timer("assistant.conversation.store.read", "backend", "log"));
+        }
+    }
+
+    @Override
+    public List<ConversationTurn> loadTurns(String conversationId, int fromTurn, int toTurn) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            Conversation conversation = live(conversationId);
+            return conversation == null ? List.of() : readTurns(conversation, Math.max(1, fromTurn), toTurn);
+        } finally {
+            sample.stop(meterRegistry.timer("assistant.conversation.store.read", "backend", "log"));
+        }
+    }
+
+    @Override
+    public long appendTurns(ConversationHistory history, List<ConversationTurn> turns) {
+        if (turns.isEmpty()) {
+            return 0;
+        }
+        Timer.Sample sample = Timer.start(meterRegistry);
+        long batch;
+        int bytes = 0;
+        synchronized (writeLock) {
+            Conversation conversation = live(history.getConversationId());
+            if (conversation == null) {
+                release(index.get(history.getConversationId())); // expired but not compacted yet
+                conversation = new Conversation(newHeader(history));
+                index.put(history.getConversationId(), conversation);
+            }
+            ConversationHistory header = conversation.headerCopy();
+            List<Record> records = new ArrayList<>();
+            for (ConversationTurn turn : turns) {
+                header.setTurnCount(header.getTurnCount() + 1);
+                turn.setConversationId(header.getConversationId());
+                turn.setTurn(header.getTurnCount());
+                records.add(new Record(TURN, toJson(turn)));
+            }
+            header.setUpdatedAt(Instant.now());
+            records.add(new Record(HEADER, toJson(header)));
+            long[] locations = write(records);
+            for (int i = 0; i < turns.size(); i++) {
+                conversation.setTurn(turns.get(i).getTurn(), locations[i], records.get(i).size());
+                bytes += records.get(i).size();
+            }
+            replaceHeader(conversation, header, locations[turns.size()], records.get(turns.size()).size());
+            history.setId(header.getId());
+            history.setTurnCount(header.getTurnCount());
+            batch = ++writtenBatches;
+        }
+        awaitDurable(batch);
+        sample.stop(meterRegistry.timer("assistant.conversation.store.append", "backend", "log"));
+        return bytes;
+    }
+
+    @Override
+    public boolean updateSummary(String conversationId, int expectedThroughTurn, String summary, int summarizedThroughTurn) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            long batch;
+            synchronized (writeLock) {
+                Conversation conversation = live(conversationId);
+                if (conversation == null || conversation.header.getSummarizedThroughTurn() != expectedThroughTurn) {
+                    return false;
+                }
+                ConversationHistory header = conversation.headerCopy();
+                header.setSummary(summary);
+                header.setSummarizedThroughTurn(summarizedThroughTurn);
+                Record record = new Record(HEADER, toJson(header));
+                replaceHeader(conversation, header, write(List.of(record))[0], record.size());
+                batch = ++writtenBatches;
+            }
+            awaitDurable(batch);
+            return true;
+        } finally {
+            sample.stop(meterRegistry.timer("assistant.conversation.store.update", "backend", "log"));
+        }
+    }
+
+    /**
+     * Expires old conversations, then rewrites sealed segments that are mostly garbage. Live records
+     * are copied under the write lock in small groups, re-checked there, so appends only ever wait
+     * for one group.
+     */
+    @Scheduled(fixedDelayString = "${conversation.store.log.compaction-interval:PT10M}")
+    public void compact() {
+        expire();
+        for (Segment segment : List.copyOf(segments.values())) {
+            Segment current;
+            synchronized (writeLock) {
+                current = active;
+            }
+            if (segment == current || segment.size.get() == 0
+                    || (double) segment.liveBytes.get() / segment.size.get() >= compactionLiveRatio) {
+                continue;
+            }
+            try {
+                long copied = rewrite(segment);
+                synchronized (writeLock) {
+                    active.channel.force(false); // the copies must be durable before the originals go
+                    segments.remove(segment.id);
+                }
+                segment.channel.close();
+                Files.delete(segment.path);
+                meterRegistry.counter("assistant.conversation.store.log.compactions").increment();
+                log.info("Compacted {}: {} live bytes of {} copied", segment.path.getFileName(), copied, segment.size.get());
+            } catch (IOException e) {
+                log.warn("Compacting {} failed: {}", segment.path.getFileName(), e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                if (segment == active) {
+                    segment.channel.force(false);
+                }
+                segment.channel.close();
+            }
+        }
+    }
+
+    private long rewrite(Segment segment) throws IOException {
+        long copied = 0;
+        long offset = 0;
+        List<ScannedRecord> group = new ArrayList<>();
+        long groupBytes = 0;
+        while (true) {
+            ScannedRecord scanned = readRecordAt(segment, offset);
+            if (scanned != null) {
+                group.add(scanned);
+                groupBytes += scanned.record().size();
+                offset += scanned.record().size();
+            }
+            if (scanned == null || groupBytes >= 1024 * 1024) {
+                copied += copyLive(group);
+                group.clear();
+                groupBytes = 0;
+            }
+            if (scanned == null) {
+                return copied;
+            }
+        }
+    }
+
+    private long copyLive(List<ScannedRecord> group) throws IOException {
+        synchronized (writeLock) {
+            List<ScannedRecord> live = new ArrayList<>();
+            List<Record> records = new ArrayList<>();
+            for (ScannedRecord scanned : group) {
+                if (isLive(scanned)) {
+                    live.add(scanned);
+                    records.add(scanned.record());
+                }
+            }
+            if (records.isEmpty()) {
+                return 0;
+            }
+            long[] locations = write(records);
+            long bytes = 0;
+            for (int i = 0; i < live.size(); i++) {
+                ScannedRecord scanned = live.get(i);
+                Conversation conversation = index.get(scanned.conversationId());
+                int size = scanned.record().size();
+                segmentOf(scanned.location()).liveBytes.addAndGet(-size); // write() counted the copy
+                if (scanned.record().type() == HEADER) {
+                    conversation.headerLocation = locations[i];
+                } else {
+                    conversation.moveTurn(scanned.turn(), locations[i]);
+                }
+                bytes += size;
+            }
+            writtenBatches++;
+            return bytes;
+        }
+    }
+
+    private boolean isLive(ScannedRecord scanned) {
+        Conversation conversation = index.get(scanned.conversationId());
+        if (conversation == null) {
+            return false;
+        }
+        return scanned.record().type() == HEADER
+                ? conversation.headerLocation == scanned.location()
+                : conversation.turnLocation(scanned.turn()) == scanned.location();
+    }
+
+    private void expire() {
+        Instant cutoff = Instant.now().minus(ttl);
+        int expired = 0;
+        synchronized (writeLock) {
+            for (Conversation conversation : List.copyOf(index.values())) {
+                if (isExpired(conversation, cutoff)) {
+                    index.remove(conversation.header.getConversationId());
+                    release(conversation);
+                    expired++;
+                }
+            }
+        }
+        if (expired > 0) {
+            log.info("Expired {} conversation(s) not written since {}", expired, cutoff);
+        }
+    }
+
+    private void release(Conversation conversation) {
+        if (conversation != null) {
+            conversation.forEachLocation((location, size) -> segmentOf(location).liveBytes.addAndGet(-size));
+        }
+    }
+
+    private Conversation live(String conversationId) {
+        Conversation conversation = index.get(conversationId);
+        return conversation == null || isExpired(conversation, Instant.now().minus(ttl)) ? null : conversation;
+    }
+
+    private static boolean isExpired(Conversation conversation, Instant cutoff) {
+        Instant updatedAt = conversation.header.getUpdatedAt();
+        return updatedAt != null && updatedAt.isBefore(cutoff);
+    }
+
+    // Turn positions are looked up again if compaction moved a turn and deleted its old segment meanwhile
+    private List<ConversationTurn> readTurns(Conversation conversation, int from, int to) {
+        List<ConversationTurn> turns = new ArrayList<>(Math.max(0, to - from + 1));
+        try {
+            for (int turn = from; turn <= to; turn++) {
+                long location = conversation.turnLocation(turn);
+                if (location < 0) {
+                    continue;
+                }
+                Record record = readTurnRecord(location);
+                if (record == null) {
+                    record = readTurnRecord(conversation.turnLocation(turn));
+                }
+                if (record == null) {
+                    throw new IOException("unreadable record for turn " + turn + " of " + conversation.header.getConversationId());
+                }
+                ConversationTurn parsed = objectMapper.readValue(record.payload(), ConversationTurn.class);
+                parsed.setRawDbResult(null);
+                parsed.setContextFromPreviousTurn(null);
+                turns.add(parsed);
+            }
+            return turns;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Record readTurnRecord(long location) throws IOException {
+        Segment segment = segmentOf(location);
+        if (segment == null) {
+            return null;
+        }
+        try {
+            return readRecord(segment, offsetOf(location));
+        } catch (ClosedChannelException e) {
+            return null;
+        }
+    }
+
+    // One contiguous write; a batch never spans two segments. Caller holds writeLock
+    private long[] write(List<Record> records) {
+        int total = records.stream().mapToInt(Record::size).sum();
+        try {
+            if (active.size.get() > 0 && active.size.get() + total > segmentBytes) {
+                roll();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(total);
+            long[] locations = new long[records.size()];
+            long base = active.size.get();
+            for (int i = 0; i < records.size(); i++) {
+                locations[i] = location(active.id, base + buffer.position());
+                records.get(i).writeTo(buffer);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                active.channel.write(buffer, base + buffer.position());
+            }
+            active.size.addAndGet(total);
+            active.liveBytes.addAndGet(total);
+            meterRegistry.summary("assistant.conversation.store.log.write.bytes").record(total);
+            return locations;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Group commit: whoever finds no fsync running forces the file for every batch written so far
+    private void awaitDurable(long batch) {
+        if (!fsync) {
+            return;
+        }
+        synchronized (syncLock) {
+            while (durableBatches < batch && syncing) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException("interrupted waiting for fsync"));
+                }
+            }
+            if (durableBatches >= batch) {
+                return;
+            }
+            syncing = true;
+        }
+        long covered = 0;
+        try {
+            FileChannel channel;
+            synchronized (writeLock) {
+                covered = writtenBatches;
+                channel = active.channel; // roll() forces the segment it seals
+            }
+            Timer.Sample sample = Timer.start(meterRegistry);
+            channel.force(false);
+            sample.stop(meterRegistry.timer("assistant.conversation.store.log.fsync"));
+        } catch (IOException e) {
+            covered = 0;
+            throw new UncheckedIOException(e);
+        } finally {
+            synchronized (syncLock) {
+                syncing = false;
+                durableBatches = Math.max(durableBatches, covered);
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    private void roll() throws IOException {
+        active.channel.force(false);
+        active = openSegment(active.id + 1);
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        Path path = directory.resolve(String.format("segment-%010d.log", id));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, path, channel, channel.size());
+        segments.put(id, segment);
+        return segment;
+    }
+
+    // Rebuilds the index from the segments in order; a torn or corrupt tail of the last one is cut off
+    private void recover() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher name = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (name.matches()) {
+                    ids.add(Integer.parseInt(name.group(1)));
+                }
+            });
+        }
+        ids.sort(null);
+        long records = 0;
+        for (int id : ids) {
+            Segment segment = openSegment(id);
+            long offset = 0;
+            ScannedRecord scanned;
+            while ((scanned = readRecordAt(segment, offset)) != null) {
+                apply(scanned);
+                offset += scanned.record().size();
+                records++;
+            }
+            if (offset < segment.size.get()) {
+                if (id == ids.get(ids.size() - 1)) {
+                    log.warn("Truncating {} at {} of {} bytes (incomplete or corrupt record)",
+                            segment.path.getFileName(), offset, segment.size.get());
+                    segment.channel.truncate(offset);
+                    segment.size.set(offset);
+                } else {
+                    log.error("Corrupt record in sealed segment {} at offset {}; the rest of it is ignored",
+                            segment.path.getFileName(), offset);
+                }
+            }
+        }
+        active = ids.isEmpty() ? openSegment(1) : segments.lastEntry().getValue();
+        // Turns whose header never turned up (lost with a corrupt sealed segment) cannot be served and
+        // would never expire: their placeholder has no updatedAt. Left out, their records count as garbage
+        int orphans = 0;
+        for (Conversation conversation : List.copyOf(index.values())) {
+            if (conversation.headerLocation < 0) {
+                index.remove(conversation.header.getConversationId());
+                orphans++;
+            }
+        }
+        if (orphans > 0) {
+            meterRegistry.counter("assistant.conversation.store.log.orphans").increment(orphans);
+            log.warn("Dropped the turns of {} conversation(s) whose header record is missing", orphans);
+        }
+        for (Conversation conversation : index.values()) {
+            // Turns past the header's count are left over from an expired conversation that was restarted
+            conversation.dropTurnsAfter(conversation.header.getTurnCount());
+            conversation.forEachLocation((location, size) -> segmentOf(location).liveBytes.addAndGet(size));
+        }
+        log.info("Conversation log {}: {} segment(s), {} record(s), {} conversation(s)",
+                directory, segments.size(), records, index.size());
+    }
+
+    // Later records win: a newer header or a compaction copy of a turn
+    private void apply(ScannedRecord scanned) throws IOException {
+        Conversation conversation = index.get(scanned.conversationId());
+        if (scanned.record().type() == HEADER) {
+            ConversationHistory header = objectMapper.readValue(scanned.record().payload(), ConversationHistory.class);
+            header.setHistory(new ArrayList<>());
+            if (conversation == null) {
+                conversation = new Conversation(header);
+                index.put(scanned.conversationId(), conversation);
+            }
+            conversation.header = header;
+            conversation.headerLocation = scanned.location();
+            conversation.headerSize = scanned.record().size();
+        } else {
+            if (conversation == null) {
+                // Until the header arrives: compaction may have copied it to a later segment than its turns
+                ConversationHistory placeholder = new ConversationHistory();
+                placeholder.setConversationId(scanned.conversationId());
+                conversation = new Conversation(placeholder);
+                index.put(scanned.conversationId(), conversation);
+            }
+            conversation.setTurn(scanned.turn(), scanned.location(), scanned.record().size());
+        }
+    }
+
+    // For recovery and compaction: the record plus the conversation and turn it belongs to
+    private ScannedRecord readRecordAt(Segment segment, long offset) throws IOException {
+        Record record = readRecord(segment, offset);
+        if (record == null) {
+            return null;
+        }
+        Map<?, ?> key = objectMapper.readValue(record.payload(), Map.class);
+        int turn = key.get("turn") instanceof Number number ? number.intValue() : 0;
+        return new ScannedRecord(record, location(segment.id, offset), String.valueOf(key.get("conversationId")), turn);
+    }
+
+    // Null at the end of the segment or at a record that is incomplete or fails its checksum
+    private Record readRecord(Segment segment, long offset) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(RECORD_OVERHEAD);
+        if (!readFully(segment.channel, head, offset)) {
+            return null;
+        }
+        head.flip();
+        int length = head.getInt();
+        int checksum = head.getInt();
+        byte type = head.get();
+        if (length < 0 || length > MAX_RECORD_BYTES || (type != HEADER && type != TURN)) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        if (!readFully(segment.channel, payload, offset + RECORD_OVERHEAD)) {
+            return null;
+        }
+        Record record = new Record(type, payload.array());
+        return record.checksum() == checksum ? record : null;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void replaceHeader(Conversation conversation, ConversationHistory header, long location, int size) {
+        if (conversation.headerLocation >= 0) {
+            segmentOf(conversation.headerLocation).liveBytes.addAndGet(-conversation.headerSize);
+        }
+        conversation.header = header;
+        conversation.headerLocation = location;
+        conversation.headerSize = size;
+    }
+
+    private static ConversationHistory newHeader(ConversationHistory history) {
+        ConversationHistory header = new ConversationHistory();
+        header.setId(history.getConversationId());
+        header.setConversationId(history.getConversationId());
+        header.setUserId(history.getUserId());
+        header.setCreatedAt(history.getCreatedAt() != null ? history.getCreatedAt() : Instant.now());
+        return header;
+    }
+
+    private byte[] toJson(Object value) {
+        try {
+            if (value instanceof ConversationHistory header) {
+                header.setHistory(new ArrayList<>()); // turns are records of their own
+            }
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Segment segmentOf(long location) {
+        return segments.get((int) (location >>> 40));
+    }
+
+    private static long offsetOf(long location) {
+        return location & ((1L << 40) - 1);
+    }
+
+    // Segment id in the high 24 bits, byte offset in the low 40
+    private static long location(int segmentId, long offset) {
+        return ((long) segmentId << 40) | offset;
+    }
+
+    private long totalBytes() {
+        return segments.values().stream().mapToLong(s -> s.size.get()).sum();
+    }
+
+    private long liveBytes() {
+        return segments.values().stream().mapToLong(s -> s.liveBytes.get()).sum();
+    }
+
+    private record Record(byte type, byte[] payload) {
+        int size() {
+            return RECORD_OVERHEAD + payload.length;
+        }
+
+        int checksum() {
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(payload);
+            return (int) crc.getValue();
+        }
+
+        void writeTo(ByteBuffer buffer) {
+            buffer.putInt(payload.length).putInt(checksum()).put(type).put(payload);
+        }
+    }
+
+    private record ScannedRecord(Record record, long location, String conversationId, int turn) {
+    }
+
+    private static final class Segment {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        final AtomicLong size;
+        final AtomicLong liveBytes = new AtomicLong();
+
+        Segment(int id, Path path, FileChannel channel, long size) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.size = new AtomicLong(size);
+        }
+    }
+
+    // Mutated under writeLock; readers see a consistent header copy and possibly stale turn positions
+    private static final class Conversation {
+        volatile ConversationHistory header;
+        volatile long headerLocation = -1;
+        int headerSize;
+        private long[] turnLocations = new long[8];
+        private int[] turnSizes = new int[8];
+
+        Conversation(ConversationHistory header) {
+            this.header = header;
+            Arrays.fill(turnLocations, -1);
+        }
+
+        ConversationHistory headerCopy() {
+            ConversationHistory header = this.header; // replaced, never mutated, once published
+            ConversationHistory copy = new ConversationHistory();
+            copy.setId(header.getId());
+            copy.setConversationId(header.getConversationId());
+            copy.setUserId(header.getUserId());
+            copy.setCreatedAt(header.getCreatedAt());
+            copy.setUpdatedAt(header.getUpdatedAt());
+            copy.setTurnCount(header.getTurnCount());
+            copy.setSummary(header.getSummary());
+            copy.setSummarizedThroughTurn(header.getSummarizedThroughTurn());
+            return copy;
+        }
+
+        synchronized long turnLocation(int turn) {
+            return turn >= 1 && turn <= turnLocations.length ? turnLocations[turn - 1] : -1;
+        }
+
+        synchronized void setTurn(int turn, long location, int size) {
+            if (turn > turnLocations.length) {
+                int length = Math.max(turn, turnLocations.length * 2);
+                int old = turnLocations.length;
+                turnLocations = Arrays.copyOf(turnLocations, length);
+                turnSizes = Arrays.copyOf(turnSizes, length);
+                Arrays.fill(turnLocations, old, length, -1);
+            }
+            turnLocations[turn - 1] = location;
+            turnSizes[turn - 1] = size;
+        }
+
+        synchronized void dropTurnsAfter(int turnCount) {
+            for (int i = turnCount; i < turnLocations.length; i++) {
+                turnLocations[i] = -1;
+            }
+        }
+
+        synchronized void moveTurn(int turn, long location) {
+            turnLocations[turn - 1] = location;
+        }
+
+        synchronized void forEachLocation(LocationConsumer consumer) {
+            if (headerLocation >= 0) {
+                consumer.accept(headerLocation, headerSize);
+            }
+            for (int i = 0; i < turnLocations.length; i++) {
+                if (turnLocations[i] >= 0) {
+                    consumer.accept(turnLocations[i], turnSizes[i]);
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface LocationConsumer {
+        void accept(long location, int size);
+    }
+}
@@ -0,0 +1,61 @@
+package assistant.repository;
+
+import assistant.model.ConversationHistory;
+import assistant.model.ConversationTurn;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+// Header in conversation_history, one document per turn in conversation_turns (see MongoConfig)
+@Component
+@ConditionalOnProperty(name = "conversation.store.type", havingValue = "mongo", matchIfMissing = true)
+public class MongoConversationStore implements ConversationStore {
+    private final ConversationHistoryRepository conversationHistoryRepository;
+    private final MeterRegistry meterRegistry;
+
+    public MongoConversationStore(ConversationHistoryRepository conversationHistoryRepository, MeterRegistry meterRegistry) {
+        this.conversationHistoryRepository = conversationHistoryRepository;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Optional<ConversationHistory> findByConversationId(String conversationId) {
+        return read(() -> conversationHistoryRepository.findByConversationId(conversationId));
+    }
+
+    @Override
+    public Optional<ConversationHistory> loadRecent(String conversationId, int lastTurns) {
+        return read(() -> conversationHistoryRepository.loadRecent(conversationId, lastTurns));
+    }
+
+    @Override
+    public List<ConversationTurn> loadTurns(String conversationId, int fromTurn, int toTurn) {
+        return read(() -> conversationHistoryRepository.loadTurns(conversationId, fromTurn, toTurn));
+    }
+
+    @Override
+    public long appendTurns(ConversationHistory history, List<ConversationTurn> turns) {
+        return meterRegistry.timer("assistant.conversation.store.append", "backend", "mongo")
+                .record(() -> conversationHistoryRepository.appendTurns(history, turns));
+    }
+
+    @Override
+    public long appendTurns(ConversationHistory history, List<ConversationTurn> turns, TurnReservation reservation) {
+        return meterRegistry.timer("assistant.conversation.store.append", "backend", "mongo")
+                .record(() -> conversationHistoryRepository.appendTurns(history, turns, reservation));
+    }
+
+    @Override
+    public boolean updateSummary(String conversationId, int expectedThroughTurn, String summary, int summarizedThroughTurn) {
+        return meterRegistry.timer("assistant.conversation.store.update", "backend", "mongo")
+                .record(() -> conversationHistoryRepository.updateSummary(conversationId, expectedThroughTurn, summary, summarizedThroughTurn));
+    }
+
+    private <T> T read(Supplier<T> read) {
+        return meterRegistry.timer("assistant.conversation.store.read", "backend", "mongo").record(read);
+    }
+}
@@ -0,0 +1,37 @@
+package assistant.repository;
+
+/**
+ * Turn numbers reserved for one batch by its first append attempt. A retried append of the same batch
+ * writes the same turns under the same numbers instead of reserving (and counting) them again, so a
+ * failed insert leaves no gap in the numbering and turnCount keeps matching the stored turns.
+ */
+public class TurnReservation {
+    private int firstTurn;
+    private String headerId;
+    private int turnCount;
+    private boolean reserved;
+
+    public boolean isReserved() {
+        return reserved;
+    }
+
+    void reserve(int firstTurn, String headerId, int turnCount) {
+        this.firstTurn = firstTurn;
+        this.headerId = headerId;
+        this.turnCount = turnCount;
+        this.reserved = true;
+    }
+
+    public int getFirstTurn() {
+        return firstTurn;
+    }
+
+    // The header's id and turnCount right after the reservation
+    public String getHeaderId() {
+        return headerId;
+    }
+
+    public int getTurnCount() {
+        return turnCount;
+    }
+}
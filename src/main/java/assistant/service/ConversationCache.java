@@ -0,0 +1,391 @@
+package assistant.service;
+
+import assistant.model.ConversationHistory;
+import assistant.model.ConversationTurn;
+import assistant.repository.ConversationStore;
+import assistant.repository.TurnReservation;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Active conversations kept in memory: the header plus the last few turns, so follow-ups arriving
+ * on the same node do not read the ConversationStore again. Bounded by entry count and idle time.
+ *
+ * <p>With sticky routing (every request of a conversation reaches this node) reads are served from
+ * memory and appended turns are written behind: they are visible to the next read at once and
+ * flushed to the store by the scheduled flush, in order, one conversation at a time. Without sticky
+ * routing another node may have appended meanwhile, so a read first compares the header's turnCount
+ * and summary position with the stored header (one small read) and reloads on a mismatch, and appends are
+ * written through before the entry is updated.
+ *
+ * <p>An entry with unflushed turns is never evicted; it is flushed first. Store writes run outside the
+ * entry's monitor, so a slow write only holds up its own conversation's flush.
+ */
+@Slf4j
+@Service
+public class ConversationCache {
+    private final ConversationStore conversationStore;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Value("${conversation.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${conversation.cache.sticky-routing:false}")
+    private boolean stickyRouting;
+
+    @Value("${conversation.cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${conversation.cache.idle-timeout:PT30M}")
+    private Duration idleTimeout;
+
+    @Value("${conversation.cache.turns:16}")
+    private int cachedTurns;
+
+    public ConversationCache(ConversationStore conversationStore, MeterRegistry meterRegistry) {
+        this.conversationStore = conversationStore;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("assistant.conversation.cache.entries", this, c -> c.size()).register(meterRegistry);
+        Gauge.builder("assistant.conversation.cache.pending.turns", this, c -> c.pendingTurns()).register(meterRegistry);
+        Gauge.builder("assistant.conversation.cache.flush.lag", this, c -> c.oldestPendingMillis())
+                .baseUnit("milliseconds").register(meterRegistry);
+    }
+
+    // A private copy of the header and up to lastTurns of the latest turns, including unflushed ones
+    public Optional<ConversationHistory> loadRecent(String conversationId, int lastTurns) {
+        if (!enabled || lastTurns > cachedTurns) {
+            flush(conversationId);
+            return conversationStore.loadRecent(conversationId, lastTurns);
+        }
+        Entry entry = entry(conversationId);
+        if (entry != null && !stickyRouting && !entry.matches(conversationStore.findByConversationId(conversationId).orElse(null))) {
+            meterRegistry.counter("assistant.conversation.cache", "result", "stale").increment();
+            remove(conversationId, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            meterRegistry.counter("assistant.conversation.cache", "result", "miss").increment();
+            Optional<ConversationHistory> loaded = conversationStore.loadRecent(conversationId, cachedTurns);
+            if (loaded.isEmpty()) {
+                return loaded;
+            }
+            entry = putIfAbsent(conversationId, new Entry(loaded.get(), cachedTurns));
+        } else {
+            meterRegistry.counter("assistant.conversation.cache", "result", "hit").increment();
+        }
+        return Optional.of(entry.snapshot(lastTurns));
+    }
+
+    /**
+     * Appends a request's new turns (already added to {@code history} with provisional numbers). The
+     * cache entry assigns the final numbers, so concurrent requests on one conversation never collide.
+     */
+    public void append(ConversationHistory history, List<ConversationTurn> turns) {
+        if (turns.isEmpty()) {
+            return;
+        }
+        if (!enabled || !stickyRouting) {
+            conversationStore.appendTurns(history, turns);
+            if (enabled) {
+                Entry entry = entry(history.getConversationId());
+                if (entry != null && !entry.appendPersisted(history, turns)) {
+                    remove(history.getConversationId(), entry);
+                }
+            }
+            return;
+        }
+        Entry entry = entry(history.getConversationId());
+        if (entry == null) {
+            // A conversation not read through the cache yet (e.g. a brand-new one): history is its state
+            entry = putIfAbsent(history.getConversationId(), new Entry(history, cachedTurns, turns.size()));
+        }
+        entry.appendPending(history, turns);
+        evict();
+    }
+
+    // The rolling summary advanced in the store (ConversationContextManager); keeps cached reads consistent
+    public void summaryUpdated(String conversationId, String summary, int summarizedThroughTurn) {
+        Entry entry = entry(conversationId);
+        if (entry != null) {
+            entry.summaryUpdated(summary, summarizedThroughTurn);
+        }
+    }
+
+    // Writes this conversation's pending turns now, e.g. before something reads the store directly
+    public void flush(String conversationId) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(conversationId);
+        }
+        if (entry != null) {
+            entry.flush(conversationStore, meterRegistry, true);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${conversation.cache.flush-interval:PT0.2S}")
+    public void flushPending() {
+        if (!enabled) {
+            return;
+        }
+        for (Entry entry : snapshotEntries()) {
+            entry.flush(conversationStore, meterRegistry, false);
+        }
+        evict();
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flushPending();
+        long left = pendingTurns();
+        if (left > 0) {
+            log.error("{} conversation turn(s) could not be written to the conversation store before shutdown", left);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        double hits = meterRegistry.counter("assistant.conversation.cache", "result", "hit").count();
+        double misses = meterRegistry.counter("assistant.conversation.cache", "result", "miss").count();
+        double stale = meterRegistry.counter("assistant.conversation.cache", "result", "stale").count();
+        double total = hits + misses;
+        stats.put("entries", size());
+        stats.put("stickyRouting", stickyRouting);
+        stats.put("hits", (long) hits);
+        stats.put("misses", (long) misses);
+        stats.put("staleReloads", (long) stale);
+        stats.put("hitRatio", total == 0 ? 0.0 : hits / total);
+        stats.put("pendingTurns", pendingTurns());
+        stats.put("oldestPendingMillis", oldestPendingMillis());
+        return stats;
+    }
+
+    private synchronized Entry entry(String conversationId) {
+        return entries.get(conversationId);
+    }
+
+    private synchronized Entry putIfAbsent(String conversationId, Entry entry) {
+        Entry existing = entries.putIfAbsent(conversationId, entry);
+        return existing != null ? existing : entry;
+    }
+
+    private synchronized void remove(String conversationId, Entry entry) {
+        if (!entry.hasPending()) {
+            entries.remove(conversationId, entry);
+        }
+    }
+
+    private synchronized List<Entry> snapshotEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    private long pendingTurns() {
+        return snapshotEntries().stream().mapToLong(Entry::pendingCount).sum();
+    }
+
+    private long oldestPendingMillis() {
+        long now = System.nanoTime();
+        return snapshotEntries().stream()
+                .mapToLong(Entry::oldestPendingNanos)
+                .filter(t -> t != Long.MAX_VALUE)
+                .map(t -> TimeUnit.NANOSECONDS.toMillis(now - t))
+                .max().orElse(0);
+    }
+
+    // Least recently used first; idle or surplus entries go once they have nothing left to write
+    private synchronized void evict() {
+        long idleBefore = System.nanoTime() - idleTimeout.toNanos();
+        int surplus = entries.size() - maxEntries;
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            boolean idle = entry.lastAccessNanos() - idleBefore < 0;
+            if (!idle && surplus <= 0) {
+                break;
+            }
+            if (!entry.hasPending()) {
+                it.remove();
+                surplus--;
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final ConversationHistory header = new ConversationHistory(); // history list unused
+        private final Deque<ConversationTurn> turns = new ArrayDeque<>();
+        private final Deque<Pending> pending = new ArrayDeque<>();
+        private final ReentrantLock flushLock = new ReentrantLock(); // one flush at a time, held across the store write
+        private final int capacity;
+        private volatile long lastAccessNanos = System.nanoTime();
+
+        Entry(ConversationHistory loaded, int capacity) {
+            this(loaded, capacity, 0);
+        }
+
+        // notYetCounted: trailing turns of loaded.getHistory() already included in its turnCount but about to be appended
+        Entry(ConversationHistory loaded, int capacity, int notYetCounted) {
+            this.capacity = capacity;
+            header.setId(loaded.getId());
+            header.setConversationId(loaded.getConversationId());
+            header.setUserId(loaded.getUserId());
+            header.setCreatedAt(loaded.getCreatedAt());
+            header.setUpdatedAt(loaded.getUpdatedAt());
+            header.setSummary(loaded.getSummary());
+            header.setSummarizedThroughTurn(loaded.getSummarizedThroughTurn());
+            header.setTurnCount(loaded.getTurnCount() - notYetCounted);
+            List<ConversationTurn> loadedTurns = loaded.getHistory();
+            for (ConversationTurn turn : loadedTurns.subList(0, loadedTurns.size() - notYetCounted)) {
+                keep(turn);
+            }
+        }
+
+        synchronized ConversationHistory snapshot(int lastTurns) {
+            lastAccessNanos = System.nanoTime();
+            ConversationHistory copy = copyHeader();
+            List<ConversationTurn> all = new ArrayList<>(turns);
+            copy.setHistory(new ArrayList<>(all.subList(Math.max(0, all.size() - lastTurns), all.size())));
+            return copy;
+        }
+
+        synchronized void appendPending(ConversationHistory history, List<ConversationTurn> appended) {
+            lastAccessNanos = System.nanoTime();
+            for (ConversationTurn turn : appended) {
+                header.setTurnCount(header.getTurnCount() + 1);
+                turn.setTurn(header.getTurnCount());
+                turn.setConversationId(header.getConversationId());
+                keep(turn);
+            }
+            pending.add(new Pending(List.copyOf(appended), System.nanoTime(), new TurnReservation()));
+            history.setTurnCount(header.getTurnCount());
+        }
+
+        // Written through already; false when the numbers show another writer and the entry must be dropped
+        synchronized boolean appendPersisted(ConversationHistory history, List<ConversationTurn> appended) {
+            if (history.getTurnCount() != header.getTurnCount() + appended.size()) {
+                return false;
+            }
+            lastAccessNanos = System.nanoTime();
+            header.setId(history.getId());
+            header.setTurnCount(history.getTurnCount());
+            appended.forEach(this::keep);
+            return true;
+        }
+
+        synchronized void summaryUpdated(String summary, int summarizedThroughTurn) {
+            if (summarizedThroughTurn > header.getSummarizedThroughTurn()) {
+                header.setSummary(summary);
+                header.setSummarizedThroughTurn(summarizedThroughTurn);
+            }
+        }
+
+        synchronized boolean matches(ConversationHistory stored) {
+            // Unflushed turns are ours, so the store may only be behind by exactly those
+            return stored != null
+                    && stored.getTurnCount() + pendingCount() == header.getTurnCount()
+                    && stored.getSummarizedThroughTurn() == header.getSummarizedThroughTurn();
+        }
+
+        /**
+         * Serialized per entry by flushLock so a conversation's batches reach the store in turn order. The
+         * entry's monitor is only held to take the next batch and to retire it, never across the write.
+         * Without {@code wait} an entry another thread is already flushing is skipped.
+         */
+        void flush(ConversationStore store, MeterRegistry meterRegistry, boolean wait) {
+            if (wait) {
+                flushLock.lock();
+            } else if (!flushLock.tryLock()) {
+                return;
+            }
+            try {
+                while (true) {
+                    Pending batch;
+                    ConversationHistory target;
+                    synchronized (this) {
+                        batch = pending.peek();
+                        if (batch == null) {
+                            return;
+                        }
+                        target = copyHeader();
+                    }
+                    try {
+                        store.appendTurns(target, batch.turns(), batch.reservation());
+                    } catch (Exception e) {
+                        meterRegistry.counter("assistant.conversation.cache.flush", "outcome", "failed").increment();
+                        log.warn("Write-behind of {} turn(s) for conversation {} failed, will retry: {}",
+                                batch.turns().size(), target.getConversationId(), e.getMessage());
+                        return;
+                    }
+                    synchronized (this) {
+                        pending.poll();
+                        header.setId(target.getId());
+                    }
+                    meterRegistry.counter("assistant.conversation.cache.flush", "outcome", "written").increment();
+                    meterRegistry.timer("assistant.conversation.cache.flush.delay")
+                            .record(System.nanoTime() - batch.enqueuedNanos(), TimeUnit.NANOSECONDS);
+                }
+            } finally {
+                flushLock.unlock();
+            }
+        }
+
+        synchronized boolean hasPending() {
+            return !pending.isEmpty();
+        }
+
+        synchronized long pendingCount() {
+            return pending.stream().mapToLong(p -> p.turns().size()).sum();
+        }
+
+        synchronized long oldestPendingNanos() {
+            return pending.isEmpty() ? Long.MAX_VALUE : pending.peek().enqueuedNanos();
+        }
+
+        long lastAccessNanos() {
+            return lastAccessNanos;
+        }
+
+        private void keep(ConversationTurn turn) {
+            turns.addLast(turn);
+            while (turns.size() > capacity) {
+                turns.removeFirst();
+            }
+        }
+
+        private ConversationHistory copyHeader() {
+            ConversationHistory copy = new ConversationHistory();
+            copy.setId(header.getId());
+            copy.setConversationId(header.getConversationId());
+            copy.setUserId(header.getUserId());
+            copy.setCreatedAt(header.getCreatedAt());
+            copy.setUpdatedAt(header.getUpdatedAt());
+            copy.setTurnCount(header.getTurnCount());
+            copy.setSummary(header.getSummary());
+            copy.setSummarizedThroughTurn(header.getSummarizedThroughTurn());
+            return copy;
+        }
+    }
+
+    // The reservation outlives failed attempts, so a retry writes the batch under the numbers it got first
+    private record Pending(List<ConversationTurn> turns, long enqueuedNanos, TurnReservation reservation) {
+    }
+}
@@ -0,0 +1,188 @@
+package assistant.service;
+
+import assistant.model.ConversationHistory;
+import assistant.model.ConversationTurn;
+import assistant.repository.ConversationStore;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps the CONVERSATION HISTORY prompt section at a fixed size. The prompt gets the rolling
+ * summary stored on the header plus the turns not yet folded into it (at most verbatim-turns +
+ * summarize-batch of them), newest first until max-tokens is used up. After a request's turns are
+ * written, turns older than the last verbatim-turns are folded into the summary by one LLM call on a
+ * background thread, once at least summarize-batch of them have accumulated.
+ */
+@Slf4j
+@Service
+public class ConversationContextManager {
+    // Same rough ratio as PromptResultEncoder
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final int MAX_CHARS_PER_TURN_IN_SUMMARY_PROMPT = 600;
+
+    private final ConversationStore conversationStore;
+    private final ConversationCache conversationCache;
+    private final ChatLanguageModel summaryModel;
+    private final ExecutorService summaryExecutor;
+    private final MeterRegistry meterRegistry;
+    private final LlmMetrics llmMetrics;
+    // Conversations with a summary update queued or running; one at a time per conversation
+    private final Set<String> summarizing = ConcurrentHashMap.newKeySet();
+
+    @Value("${ollama.model-default}")
+    private String summaryModelName;
+
+    @Value("${conversation.context.verbatim-turns:4}")
+    private int verbatimTurns;
+
+    @Value("${conversation.context.summarize-batch:4}")
+    private int summarizeBatch;
+
+    @Value("${conversation.context.max-tokens:1000}")
+    private int maxTokens;
+
+    @Value("${conversation.context.summary-max-tokens:300}")
+    private int summaryMaxTokens;
+
+    public ConversationContextManager(ConversationStore conversationStore,
+                                      ConversationCache conversationCache,
+                                      @Qualifier("defaultModel") ChatLanguageModel summaryModel,
+                                      @Qualifier("conversationSummaryExecutor") ExecutorService summaryExecutor,
+                                      MeterRegistry meterRegistry,
+                                      LlmMetrics llmMetrics) {
+        this.conversationStore = conversationStore;
+        this.conversationCache = conversationCache;
+        this.summaryModel = summaryModel;
+        this.summaryExecutor = summaryExecutor;
+        this.meterRegistry = meterRegistry;
+        this.llmMetrics = llmMetrics;
+    }
+
+    // Turns to load with the header: the verbatim window plus the ones waiting to be summarized
+    public int turnsToLoad() {
+        return verbatimTurns + summarizeBatch;
+    }
+
+    public String buildContext(ConversationHistory history) {
+        int budget = maxTokens * CHARS_PER_TOKEN;
+        String summary = history.getSummary() == null || history.getSummary().isBlank() ? ""
+                : "Summary of earlier conversation: " + clip(history.getSummary(), summaryMaxTokens * CHARS_PER_TOKEN) + "\n";
+        int remaining = budget - summary.length();
+
+        // Newest first, so the oldest unsummarized turns are the ones dropped when the cap is reached
+        List<String> pairs = new ArrayList<>();
+        List<ConversationTurn> turns = history.getHistory();
+        for (int i = turns.size() - 1; i >= 0 && remaining > 0; i--) {
+            ConversationTurn turn = turns.get(i);
+            if (turn.getTurn() <= history.getSummarizedThroughTurn()) {
+                break;
+            }
+            String pair = "User: " + turn.getUserQuery() + "\nAI: " + turn.getLlmFormattedResponse();
+            if (pair.length() > remaining) {
+                // Always keep at least the start of the latest exchange
+                if (pairs.isEmpty()) {
+                    pairs.add(clip(pair, remaining));
+                }
+                break;
+            }
+            pairs.add(0, pair);
+            remaining -= pair.length() + 1;
+        }
+        return summary + String.join("\n", pairs);
+    }
+
+    // Called after a request's turns are persisted; returns immediately
+    public void summarizeAsync(ConversationHistory history) {
+        String conversationId = history.getConversationId();
+        if (history.getTurnCount() - verbatimTurns - history.getSummarizedThroughTurn() < summarizeBatch
+                || !summarizing.add(conversationId)) {
+            return;
+        }
+        try {
+            summaryExecutor.execute(() -> {
+                try {
+                    summarize(conversationId);
+                } finally {
+                    summarizing.remove(conversationId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The backlog stays on the header and is folded in after a later turn
+            summarizing.remove(conversationId);
+            meterRegistry.counter("assistant.conversation.summary", "outcome", "rejected").increment();
+        }
+    }
+
+    private void summarize(String conversationId) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            // Turns written behind must be in the store before they can be read back for the summary
+            conversationCache.flush(conversationId);
+            ConversationHistory header = conversationStore.findByConversationId(conversationId).orElse(null);
+            if (header == null) {
+                outcome = "missing";
+                return;
+            }
+            int from = header.getSummarizedThroughTurn() + 1;
+            int through = header.getTurnCount() - verbatimTurns;
+            if (through - from + 1 < summarizeBatch) {
+                outcome = "skipped";
+                return;
+            }
+            List<ConversationTurn> turns = conversationStore.loadTurns(conversationId, from, through);
+            String prompt = summaryPrompt(header.getSummary(), turns);
+            String generated = llmMetrics.time(summaryModelName, "summarize_conversation", "free_form",
+                    () -> llmMetrics.generate(summaryModel, summaryModelName, prompt));
+            String summary = clip(generated.trim(), summaryMaxTokens * CHARS_PER_TOKEN);
+            boolean updated = conversationStore.updateSummary(
+                    conversationId, header.getSummarizedThroughTurn(), summary, through);
+            outcome = updated ? "updated" : "conflict";
+            if (updated) {
+                conversationCache.summaryUpdated(conversationId, summary, through);
+            }
+            log.info("Folded turns {}..{} of conversation {} into its summary ({} chars): {}",
+                    from, through, conversationId, summary.length(), outcome);
+        } catch (Exception e) {
+            log.warn("Summarizing conversation {} failed: {}", conversationId, e.getMessage());
+        } finally {
+            sample.stop(meterRegistry.timer("assistant.conversation.summary", "outcome", outcome));
+        }
+    }
+
+    private String summaryPrompt(String previousSummary, List<ConversationTurn> turns) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("You maintain a running summary of a conversation between a user and a database assistant.\n");
+        prompt.append("Update the summary with the new exchanges below. Keep the tables, columns, filters, ")
+                .append("identifiers and numbers the user may refer back to; drop pleasantries and raw result rows.\n");
+        prompt.append("Answer with the updated summary only, at most ").append(summaryMaxTokens * 3 / 4).append(" words.\n\n");
+        prompt.append("CURRENT SUMMARY:\n")
+                .append(previousSummary == null || previousSummary.isBlank() ? "(none)" : previousSummary).append("\n\n");
+        prompt.append("NEW EXCHANGES:\n");
+        for (ConversationTurn turn : turns) {
+            prompt.append("User: ").append(turn.getUserQuery()).append('\n');
+            if (turn.getGeneratedSql() != null) {
+                prompt.append("SQL: ").append(turn.getGeneratedSql()).append('\n');
+            }
+            prompt.append("AI: ").append(clip(String.valueOf(turn.getLlmFormattedResponse()), MAX_CHARS_PER_TURN_IN_SUMMARY_PROMPT))
+                    .append('\n');
+        }
+        return prompt.toString();
+    }
+
+    private static String clip(String text, int maxChars) {
+        return text.length() <= maxChars ? text : text.substring(0, Math.max(0, maxChars)) + "...";
+    }
+}
@@ -5,6 +5,8 @@ import ai.djl.inference.Predictor;
 import ai.djl.repository.zoo.Criteria;
 import ai.djl.repository.zoo.ZooModel;
 import ai.djl.translate.TranslateException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
@@ -24,6 +26,11 @@ public class EmbeddingService {
 
     private ZooModel<String, float[]> model;
     private Predictor<String, float[]> predictor;
+    private final MeterRegistry meterRegistry;
+
+    public EmbeddingService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
 
     @PostConstruct
     public void init() throws IOException {
@@ -60,6 +67,8 @@ public class EmbeddingService {
             log.error("Embedding predictor not initialized.");
             return Collections.emptyList();
         }
+        // Also taken for follow-up questions inside RAG retrieval, so not only the "embedding" request stage
+        Timer.Sample sample = Timer.start(meterRegistry);
         try {
             float[] embeddingsArray = predictor.predict(text);
             List<Double> embeddingsList = new java.util.ArrayList<>(embeddingsArray.length);
@@ -70,6 +79,8 @@ public class EmbeddingService {
         } catch (TranslateException e) {
             log.error("Error generating embedding: {}", e.getMessage());
             return Collections.emptyList();
+        } finally {
+            sample.stop(meterRegistry.timer("assistant.embedding"));
         }
     }
 }
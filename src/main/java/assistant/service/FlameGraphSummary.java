@@ -0,0 +1,93 @@
+package assistant.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the spans of one trace into folded stacks ("root;child;grandchild 1234", the input format of
+ * flamegraph.pl and speedscope), valued by each span's self time in microseconds: its duration minus
+ * the time covered by its children. Children that overlap (concurrent batch steps, speculative
+ * candidates) are counted once, so self time never goes negative.
+ */
+public final class FlameGraphSummary {
+
+    public record TraceSpan(String spanId, String parentId, String name, long startNanos, long endNanos) {
+        long duration() {
+            return Math.max(0, endNanos - startNanos);
+        }
+    }
+
+    public record Frame(String stack, long selfMicros) {
+        public String folded() {
+            return stack + " " + selfMicros;
+        }
+    }
+
+    private FlameGraphSummary() {
+    }
+
+    // Heaviest stacks first; spans whose parent is not in the list are treated as roots
+    public static List<Frame> fold(List<TraceSpan> spans) {
+        Map<String, TraceSpan> byId = new HashMap<>();
+        Map<String, List<TraceSpan>> children = new HashMap<>();
+        spans.forEach(span -> byId.put(span.spanId(), span));
+        for (TraceSpan span : spans) {
+            if (span.parentId() != null && byId.containsKey(span.parentId())) {
+                children.computeIfAbsent(span.parentId(), id -> new ArrayList<>()).add(span);
+            }
+        }
+        Map<String, Long> stacks = new LinkedHashMap<>();
+        for (TraceSpan span : spans) {
+            if (span.parentId() == null || !byId.containsKey(span.parentId())) {
+                fold(span, "", children, stacks);
+            }
+        }
+        List<Frame> frames = new ArrayList<>();
+        stacks.forEach((stack, self) -> frames.add(new Frame(stack, self)));
+        frames.sort(Comparator.comparingLong(Frame::selfMicros).reversed());
+        return frames;
+    }
+
+    private static void fold(TraceSpan span, String prefix, Map<String, List<TraceSpan>> children, Map<String, Long> stacks) {
+        String stack = prefix.isEmpty() ? frameName(span) : prefix + ";" + frameName(span);
+        List<TraceSpan> nested = children.getOrDefault(span.spanId(), List.of());
+        long self = span.duration() - coveredNanos(span, nested);
+        stacks.merge(stack, Math.max(0, self) / 1_000, Long::sum);
+        nested.forEach(child -> fold(child, stack, children, stacks));
+    }
+
+    // Union of the children's intervals, clipped to the parent
+    private static long coveredNanos(TraceSpan parent, List<TraceSpan> nested) {
+        List<long[]> intervals = new ArrayList<>();
+        for (TraceSpan child : nested) {
+            long start = Math.max(parent.startNanos(), child.startNanos());
+            long end = Math.min(parent.endNanos(), child.endNanos());
+            if (end > start) {
+                intervals.add(new long[]{start, end});
+            }
+        }
+        intervals.sort(Comparator.comparingLong(interval -> interval[0]));
+        long covered = 0;
+        long currentStart = -1;
+        long currentEnd = -1;
+        for (long[] interval : intervals) {
+            if (interval[0] > currentEnd) {
+                covered += currentEnd - currentStart;
+                currentStart = interval[0];
+                currentEnd = interval[1];
+            } else {
+                currentEnd = Math.max(currentEnd, interval[1]);
+            }
+        }
+        return covered + (currentEnd - currentStart);
+    }
+
+    // ';' separates frames and the last ' ' separates the value in the folded format
+    private static String frameName(TraceSpan span) {
+        return span.name().replace(';', ',').replace(' ', ':');
+    }
+}
@@ -0,0 +1,446 @@
+package assistant.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGStatement;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs LLM-generated SQL without materialising the whole result: rows are read through a
+ * server-side cursor (fetchSize inside a transaction) and handed to a consumer one at a time,
+ * with a hard row cap and byte cap enforced here rather than relying on the prompt's LIMIT rule.
+ * Everything goes through the dedicated read-only generated-query pool and its bounded executor.
+ */
+@Slf4j
+@Service
+public class GeneratedQueryExecutor {
+    // indeterminate_datatype, undefined_function, datatype_mismatch, ambiguous_function
+    private static final Set<String> PARAMETER_TYPING_STATES = Set.of("42P18", "42883", "42804", "42725");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ExecutorService executor;
+    private final SqlAnalyzer sqlAnalyzer;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final RequestTracer requestTracer;
+    private final Map<String, PreparedUse> preparedUse;
+
+    @Value("${query.execution.fetch-size:500}")
+    private int fetchSize;
+
+    @Value("${query.execution.progress-rows:100}")
+    private int progressRows;
+
+    @Value("${query.execution.max-rows:1000}")
+    private int maxRows;
+
+    @Value("${query.execution.max-bytes:5MB}")
+    private DataSize maxBytes;
+
+    @Value("${query.execution.statement-timeout:30s}")
+    private Duration statementTimeout;
+
+    @Value("${query.execution.bind-literals:true}")
+    private boolean bindLiterals;
+
+    public GeneratedQueryExecutor(@Qualifier("generatedQueryJdbcTemplate") JdbcTemplate jdbcTemplate,
+                                  @Qualifier("generatedSqlExecutor") ExecutorService executor,
+                                  SqlAnalyzer sqlAnalyzer,
+                                  ObjectMapper objectMapper,
+                                  MeterRegistry meterRegistry,
+                                  RequestTracer requestTracer,
+                                  @Value("${query.execution.prepared-stats.max-entries:500}") int maxPreparedStats) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.executor = executor;
+        this.sqlAnalyzer = sqlAnalyzer;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.requestTracer = requestTracer;
+        this.preparedUse = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedUse> eldest) {
+                return size() > maxPreparedStats;
+            }
+        });
+    }
+
+    // Bound executions of one fingerprint, and how many of them ran a named server-side prepared statement
+    private record PreparedUse(LongAdder executions, LongAdder serverPrepared) {
+    }
+
+    @FunctionalInterface
+    public interface RowHandler {
+        // Returns false to stop reading further rows
+        boolean onRow(Map<String, Object> row, byte[] json) throws IOException;
+    }
+
+    public record StreamSummary(long rows, long bytes, String truncatedBy) {
+        public boolean truncated() {
+            return truncatedBy != null;
+        }
+    }
+
+    /**
+     * Executes with the statement's literals lifted into bind parameters when the analyzer can do so,
+     * so every literal variant of one question shape shares a single server-side prepared statement
+     * (pgjdbc caches them per connection by SQL text). Falls back to the inline-literal SQL when
+     * Postgres cannot type a parameter.
+     */
+    public StreamSummary stream(String sql, OrchestrationContext context, RowHandler handler) {
+        SqlAnalysis analysis = bindLiterals ? sqlAnalyzer.analyze(sql) : null;
+        if (analysis != null && analysis.isBindable()) {
+            try {
+                StreamSummary summary = stream(analysis.parameterizedSql(), analysis.literals(), analysis.fingerprint(), context, handler);
+                meterRegistry.counter("assistant.query.bind", "outcome", "bound").increment();
+                return summary;
+            } catch (DataAccessException e) {
+                if (!isParameterTypingError(e)) {
+                    throw e;
+                }
+                log.info("Bound execution of {} failed ({}), retrying with inline literals",
+                        analysis.fingerprint(), e.getMostSpecificCause().getMessage());
+                meterRegistry.counter("assistant.query.bind", "outcome", "fallback").increment();
+            }
+        } else {
+            meterRegistry.counter("assistant.query.bind", "outcome", "inline").increment();
+        }
+        return stream(sql, List.of(), null, context, handler);
+    }
+
+    // fingerprint is set for bound executions, whose server-side statement reuse is recorded
+    private StreamSummary stream(String sql, List<Object> parameters, String fingerprint,
+                                 OrchestrationContext context, RowHandler handler) {
+        return admit("stream", context, () -> jdbcTemplate.execute((ConnectionCallback<StreamSummary>) con -> {
+            long acquired = System.nanoTime();
+            boolean completed = false;
+            boolean autoCommit = con.getAutoCommit();
+            // pgjdbc only honours fetchSize (cursor-based fetching) outside autocommit
+            con.setAutoCommit(false);
+            try {
+                Integer backendPid;
+                // Server-side limit for this transaction only (set_config is_local = SET LOCAL), in addition
+                // to the client-side query timeout; the backend pid is for the pg_cancel_backend fallback
+                try (PreparedStatement setup = con.prepareStatement("SELECT pg_backend_pid(), set_config('statement_timeout', ?, true)")) {
+                    setup.setString(1, String.valueOf(statementTimeoutMillis(context)));
+                    try (ResultSet rs = setup.executeQuery()) {
+                        backendPid = rs.next() ? rs.getInt(1) : null;
+                    }
+                }
+                try (PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    ps.setFetchSize(fetchSize);
+                    ps.setMaxRows(maxRows + 1); // one extra row tells us the cap was hit
+                    ps.setQueryTimeout(context.remainingSeconds());
+                    for (int i = 0; i < parameters.size(); i++) {
+                        ps.setObject(i + 1, parameters.get(i)); // strings go out untyped (stringtype=unspecified)
+                    }
+                    Runnable deregister = context.onCancel(() -> cancelStatement(ps, backendPid, context));
+                    if (fingerprint != null) {
+                        recordPreparedUse(fingerprint, ps);
+                    }
+                    requestTracer.tag("db.statement", sql);
+                    context.reportProgress(0, "executing");
+                    long executeStarted = System.nanoTime();
+                    try (ResultSet rs = ps.executeQuery()) {
+                        // Until Postgres returns the first fetch; reading the rest is in connection.hold
+                        meterRegistry.timer("assistant.query.execute", "kind", "stream")
+                                .record(System.nanoTime() - executeStarted, TimeUnit.NANOSECONDS);
+                        StreamSummary summary = readRows(rs, handler, context);
+                        completed = true;
+                        return summary;
+                    } finally {
+                        deregister.run();
+                    }
+                }
+            } finally {
+                con.rollback();
+                con.setAutoCommit(autoCommit);
+                recordHold("stream", acquired, completed, context);
+            }
+        }));
+    }
+
+    public record CollectedRows(List<Map<String, Object>> rows, StreamSummary summary) {
+        // A truncated result says so instead of silently dropping rows
+        public Object toResult() {
+            if (!summary.truncated()) {
+                return rows;
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("rows", rows);
+            result.put("truncated", true);
+            result.put("truncatedBy", summary.truncatedBy());
+            return result;
+        }
+    }
+
+    // Bounded, in-memory variant for execute_query
+    public Object collect(String sql, OrchestrationContext context) {
+        return collectRows(sql, context).toResult();
+    }
+
+    public CollectedRows collectRows(String sql, OrchestrationContext context) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        StreamSummary summary = stream(sql, context, (row, json) -> rows.add(row));
+        return new CollectedRows(rows, summary);
+    }
+
+    // Writes one JSON object per line, then a trailing {"_summary": ...} line with row count, truncation
+    // and a column profile built in the same pass
+    public void streamNdjson(String sql, OrchestrationContext context, OutputStream out) throws IOException {
+        StreamSummary summary;
+        ResultProfile profile = new ResultProfile(0);
+        try {
+            summary = stream(sql, context, (row, json) -> {
+                profile.accept(row);
+                out.write(json);
+                out.write('\n');
+                return true;
+            });
+        } catch (UncheckedIOException e) {
+            // The client went away mid-stream; the cursor is already closed, this just records why
+            context.cancel("client disconnected");
+            throw e.getCause();
+        }
+        Map<String, Object> trailer = new LinkedHashMap<>();
+        trailer.put("rows", summary.rows());
+        trailer.put("bytes", summary.bytes());
+        trailer.put("truncated", summary.truncated());
+        trailer.put("truncatedBy", summary.truncatedBy());
+        trailer.put("profile", profile.toMap().get("columns"));
+        out.write(objectMapper.writeValueAsBytes(Map.of("_summary", trailer)));
+        out.write('\n');
+        out.flush();
+    }
+
+    // Single statement with the context's remaining time as timeout, cancelled with the context
+    public <T> T query(String sql, OrchestrationContext context, ResultSetExtractor<T> extractor) {
+        return context.await(queryAsync(sql, context, extractor));
+    }
+
+    // Same, without blocking the caller: completes on the generated-SQL executor
+    public <T> CompletableFuture<T> queryAsync(String sql, OrchestrationContext context, ResultSetExtractor<T> extractor) {
+        return submit("query", context, () -> {
+            requestTracer.tag("db.statement", sql);
+            AtomicReference<Statement> running = new AtomicReference<>();
+            Runnable deregister = context.onCancel(() -> cancelStatement(running.get(), null, context));
+            long started = System.nanoTime();
+            boolean completed = false;
+            try {
+                T result = jdbcTemplate.query(con -> {
+                    PreparedStatement ps = con.prepareStatement(sql);
+                    ps.setQueryTimeout(context.remainingSeconds());
+                    running.set(ps);
+                    return ps;
+                }, extractor);
+                completed = true;
+                return result;
+            } finally {
+                deregister.run();
+                recordHold("query", started, completed, context);
+            }
+        });
+    }
+
+    /**
+     * Runs the work on the generated-SQL executor in arrival order and waits for it under the
+     * context's deadline. Time spent queued is recorded separately from Hikari's own
+     * connection-acquire timer; a full queue is reported as a busy error rather than queued unboundedly.
+     */
+    private <T> T admit(String kind, OrchestrationContext context, Callable<T> work) {
+        return context.await(submit(kind, context, work));
+    }
+
+    // Cancelling the returned future interrupts the worker, as cancelling the executor's own Future would
+    private <T> CompletableFuture<T> submit(String kind, OrchestrationContext context, Callable<T> work) {
+        context.checkActive();
+        long queuedAt = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task;
+        try {
+            task = executor.submit(requestTracer.wrap(() -> {
+                long queueWait = System.nanoTime() - queuedAt;
+                meterRegistry.timer("assistant.query.queue.wait", "kind", kind).record(queueWait, TimeUnit.NANOSECONDS);
+                RequestTracer.Scoped span = requestTracer.open("jdbc." + kind,
+                        "db.system", "postgresql", "db.queue_wait_ms", String.valueOf(queueWait / 1_000_000));
+                try {
+                    context.checkActive();
+                    result.complete(work.call());
+                } catch (Throwable e) {
+                    span.span().error(e);
+                    result.completeExceptionally(e);
+                } finally {
+                    span.close();
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            meterRegistry.counter("assistant.query.queue.rejected", "kind", kind).increment();
+            throw new IllegalStateException("Generated query capacity exhausted, try again shortly");
+        }
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private StreamSummary readRows(ResultSet rs, RowHandler handler, OrchestrationContext context) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        String[] labels = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            labels[i] = JdbcUtils.lookupColumnName(metaData, i + 1);
+        }
+        long rows = 0;
+        long bytes = 0;
+        String truncatedBy = null;
+        try {
+            while (rs.next()) {
+                if (rows >= maxRows) {
+                    truncatedBy = "row cap of " + maxRows;
+                    break;
+                }
+                Map<String, Object> row = new LinkedHashMap<>(columnCount);
+                for (int i = 0; i < columnCount; i++) {
+                    row.put(labels[i], JdbcUtils.getResultSetValue(rs, i + 1));
+                }
+                byte[] json = objectMapper.writeValueAsBytes(row);
+                if (bytes + json.length > maxBytes.toBytes()) {
+                    truncatedBy = "byte cap of " + maxBytes;
+                    break;
+                }
+                rows++;
+                bytes += json.length;
+                if (rows % progressRows == 0) {
+                    context.reportProgress(rows, rows + " rows read");
+                }
+                if (!handler.onRow(row, json)) {
+                    truncatedBy = "consumer stopped";
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (truncatedBy != null) {
+            log.warn("Generated query result truncated after {} rows / {} bytes: {}", rows, bytes, truncatedBy);
+            meterRegistry.counter("assistant.query.truncated", "reason", truncatedBy.split(" ")[0]).increment();
+        }
+        requestTracer.tag("db.rows", String.valueOf(rows));
+        meterRegistry.summary("assistant.query.rows").record(rows);
+        meterRegistry.summary("assistant.query.bytes").record(bytes);
+        return new StreamSummary(rows, bytes, truncatedBy);
+    }
+
+    /**
+     * Per fingerprint: bound executions and how many ran a named server-side prepared statement
+     * (pgjdbc switches after query.datasource.prepare-threshold executions of the same text on a
+     * connection), i.e. how often parsing and planning setup was actually skipped, for the stats endpoint.
+     */
+    public Map<String, Map<String, Object>> preparedStatementStats() {
+        Map<String, Map<String, Object>> stats = new TreeMap<>();
+        synchronized (preparedUse) {
+            preparedUse.forEach((fingerprint, use) -> stats.put(fingerprint, Map.of(
+                    "executions", use.executions().sum(),
+                    "serverPrepared", use.serverPrepared().sum())));
+        }
+        return stats;
+    }
+
+    // Asked before executing: true when this execution uses the named statement rather than a one-shot parse
+    private void recordPreparedUse(String fingerprint, PreparedStatement ps) throws SQLException {
+        boolean serverPrepared = ps.isWrapperFor(PGStatement.class) && ps.unwrap(PGStatement.class).isUseServerPrepare();
+        PreparedUse use = preparedUse.computeIfAbsent(fingerprint, f -> new PreparedUse(new LongAdder(), new LongAdder()));
+        use.executions().increment();
+        if (serverPrepared) {
+            use.serverPrepared().increment();
+        }
+        meterRegistry.counter("assistant.query.prepared", "mode", serverPrepared ? "server" : "unnamed").increment();
+    }
+
+    // Parameter type could not be inferred or matched; the inline literal form may still plan fine
+    private static boolean isParameterTypingError(DataAccessException e) {
+        return e.getMostSpecificCause() instanceof SQLException sql
+                && sql.getSQLState() != null
+                && PARAMETER_TYPING_STATES.contains(sql.getSQLState());
+    }
+
+    private long statementTimeoutMillis(OrchestrationContext context) {
+        return Math.max(1, Math.min(statementTimeout.toMillis(), context.remaining().toMillis()));
+    }
+
+    // How long a generated statement kept its pooled connection, by how it ended
+    private void recordHold(String kind, long sinceNanos, boolean completed, OrchestrationContext context) {
+        String outcome = context.isCancelled() ? "cancelled" : completed ? "completed" : "failed";
+        meterRegistry.timer("assistant.query.connection.hold", "kind", kind, "outcome", outcome)
+                .record(System.nanoTime() - sinceNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Statement.cancel() sends Postgres' cancel request on a side connection; pg_cancel_backend is the
+    // fallback when that fails and the backend pid is known
+    private void cancelStatement(Statement statement, Integer backendPid, OrchestrationContext context) {
+        if (statement == null) {
+            return;
+        }
+        String reason = reasonTag(context.getCancelReason());
+        try {
+            statement.cancel();
+            meterRegistry.counter("assistant.query.cancellations", "reason", reason, "method", "statement").increment();
+        } catch (SQLException e) {
+            log.warn("Failed to cancel statement: {}", e.getMessage());
+            if (backendPid == null) {
+                meterRegistry.counter("assistant.query.cancellations", "reason", reason, "method", "failed").increment();
+                return;
+            }
+            // Off the cancelling thread: it may be the deadline scheduler, and this needs a pooled connection
+            CompletableFuture.runAsync(() -> {
+                try {
+                    jdbcTemplate.queryForObject("SELECT pg_cancel_backend(?)", Boolean.class, backendPid);
+                    meterRegistry.counter("assistant.query.cancellations", "reason", reason, "method", "pg_cancel_backend").increment();
+                } catch (Exception fallbackError) {
+                    log.warn("pg_cancel_backend({}) failed: {}", backendPid, fallbackError.getMessage());
+                    meterRegistry.counter("assistant.query.cancellations", "reason", reason, "method", "failed").increment();
+                }
+            });
+        }
+    }
+
+    // "client disconnected", "deadline exceeded", "request timed out", ... -> first word, to keep tag cardinality low
+    private static String reasonTag(String reason) {
+        return reason == null ? "unknown" : reason.split(" ", 2)[0];
+    }
+}
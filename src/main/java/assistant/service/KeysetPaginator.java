@@ -0,0 +1,294 @@
+package assistant.service;
+
+import assistant.model.KeysetCursor;
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.select.AllColumns;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.SelectItem;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * "Show more" over a previous execute_query result without the LLM or deep OFFSET scans. After a
+ * result is returned, the last row's ORDER BY values are kept as a cursor on the turn; the next
+ * page wraps the original query and filters on those values:
+ *
+ * <pre>
+ *   SELECT * FROM (&lt;original without LIMIT&gt;) AS page
+ *   WHERE ("a", "b") &gt;= (x, y) ORDER BY "a", "b" LIMIT n OFFSET &lt;ties&gt;
+ * </pre>
+ *
+ * {@code >=} plus an OFFSET over the rows already served with an equal key keeps non-unique sort keys
+ * correct; the OFFSET only ever skips those ties. Only queries ordered by output columns that can be
+ * identified unambiguously get a cursor, and rows whose sort key is NULL (after the cursor in
+ * ascending order) are not reached.
+ */
+@Service
+public class KeysetPaginator {
+    // "show more", "next 100 rows", "give me the following page please", "continue"; nothing that adds a new condition
+    private static final Pattern CONTINUATION = Pattern.compile(
+            "(?i)^\\s*(please\\s+)?((show|give|get|list|fetch|load)\\s+(me\\s+)?)?(the\\s+)?(next|more|following)(\\s+page)?(\\s+\\d{1,5})?"
+                    + "(\\s+(rows|results|records|items|entries|ones|lines|page))?(\\s+please)?\\W*$"
+                    + "|^\\s*(continue|go on|keep going)\\W*$");
+    private static final Set<String> NON_FINITE = Set.of("NaN", "Infinity", "-Infinity");
+    private static final Pattern MENTIONED_SIZE = Pattern.compile("(?i)\\b(next|more|following)\\s+(\\d{1,5})\\b");
+
+    private final SqlAnalyzer sqlAnalyzer;
+
+    public KeysetPaginator(SqlAnalyzer sqlAnalyzer) {
+        this.sqlAnalyzer = sqlAnalyzer;
+    }
+
+    public boolean isContinuation(String userQuery) {
+        return userQuery != null && userQuery.length() < 80 && CONTINUATION.matcher(userQuery).matches();
+    }
+
+    // "next 100" -> 100, otherwise the previous page size
+    public int requestedPageSize(String userQuery, KeysetCursor cursor) {
+        Matcher size = MENTIONED_SIZE.matcher(userQuery);
+        return size.find() ? Integer.parseInt(size.group(2)) : cursor.getPageSize();
+    }
+
+    /**
+     * Cursor after {@code rows}, the first page of {@code sql}; null when the query cannot be paged by
+     * keyset (no ORDER BY on output columns, explicit NULLS ordering, NULL in the last sort key, ...).
+     */
+    public KeysetCursor cursorFor(String sql, List<Map<String, Object>> rows) {
+        if (rows == null || rows.isEmpty()) {
+            return null;
+        }
+        Statement statement;
+        try {
+            statement = CCJSqlParserUtil.parse(sql);
+        } catch (JSQLParserException e) {
+            return null;
+        }
+        if (!(statement instanceof PlainSelect select) || select.getOrderByElements() == null) {
+            return null;
+        }
+        List<String> labels = new ArrayList<>(rows.get(0).keySet());
+        KeysetCursor cursor = new KeysetCursor();
+        for (OrderByElement element : select.getOrderByElements()) {
+            if (element.getNullOrdering() != null) {
+                return null;
+            }
+            String label = outputLabel(element.getExpression(), select, labels);
+            if (label == null) {
+                return null;
+            }
+            cursor.getOrderColumns().add(label);
+            cursor.getDescending().add(!element.isAsc());
+        }
+        select.setLimit(null);
+        select.setOffset(null);
+        select.setFetch(null);
+        cursor.setBaseSql(select.toString());
+        cursor.setSqlFingerprint(sqlAnalyzer.analyze(sql).fingerprint());
+        cursor.setPageSize(rows.size());
+        return advance(cursor, rows);
+    }
+
+    // Cursor after one more page; null when the new last row has a NULL sort key
+    public KeysetCursor advance(KeysetCursor previous, List<Map<String, Object>> page) {
+        if (page.isEmpty()) {
+            return previous;
+        }
+        Map<String, Object> last = page.get(page.size() - 1);
+        List<String> values = new ArrayList<>();
+        List<Boolean> numeric = new ArrayList<>();
+        for (String column : previous.getOrderColumns()) {
+            Object value = last.get(column);
+            if (value == null) {
+                return null;
+            }
+            values.add(cursorValue(value));
+            numeric.add(value instanceof Number);
+        }
+        int ties = 0;
+        for (int i = page.size() - 1; i >= 0 && sameKey(page.get(i), last, previous.getOrderColumns()); i--) {
+            ties++;
+        }
+        // The whole page sat on the previous key: the earlier ties still count
+        if (ties == page.size() && values.equals(previous.getLastValues())) {
+            ties += previous.getTies();
+        }
+
+        KeysetCursor next = new KeysetCursor();
+        next.setBaseSql(previous.getBaseSql());
+        next.setSqlFingerprint(previous.getSqlFingerprint());
+        next.setOrderColumns(previous.getOrderColumns());
+        next.setDescending(previous.getDescending());
+        next.setLastValues(values);
+        next.setNumeric(numeric);
+        next.setTies(ties);
+        next.setPageSize(previous.getPageSize());
+        next.setRowsServed(previous.getRowsServed() + page.size());
+        return next;
+    }
+
+    public String nextPageSql(KeysetCursor cursor, int pageSize) {
+        List<String> columns = cursor.getOrderColumns().stream().map(KeysetPaginator::quoteIdentifier).toList();
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < cursor.getLastValues().size(); i++) {
+            values.add(literal(cursor.getLastValues().get(i), cursor.getNumeric().get(i)));
+        }
+
+        String predicate;
+        boolean uniform = cursor.getDescending().stream().distinct().count() == 1;
+        if (uniform) {
+            // Row comparison lets Postgres use a matching composite index
+            predicate = "(" + String.join(", ", columns) + ") " + (cursor.getDescending().get(0) ? "<=" : ">=")
+                    + " (" + String.join(", ", values) + ")";
+        } else {
+            // (a > x) OR (a = x AND b < y) OR ... with the last comparison inclusive
+            List<String> alternatives = new ArrayList<>();
+            for (int i = 0; i < columns.size(); i++) {
+                StringBuilder alternative = new StringBuilder("(");
+                for (int j = 0; j < i; j++) {
+                    alternative.append(columns.get(j)).append(" = ").append(values.get(j)).append(" AND ");
+                }
+                boolean desc = cursor.getDescending().get(i);
+                boolean lastColumn = i == columns.size() - 1;
+                alternative.append(columns.get(i)).append(desc ? " <" : " >").append(lastColumn ? "= " : " ")
+                        .append(values.get(i)).append(')');
+                alternatives.add(alternative.toString());
+            }
+            predicate = String.join(" OR ", alternatives);
+        }
+
+        List<String> orderBy = new ArrayList<>();
+        for (int i = 0; i < columns.size(); i++) {
+            orderBy.add(columns.get(i) + (cursor.getDescending().get(i) ? " DESC" : ""));
+        }
+        return "SELECT * FROM (" + cursor.getBaseSql() + ") AS page WHERE " + predicate
+                + " ORDER BY " + String.join(", ", orderBy)
+                + " LIMIT " + pageSize + (cursor.getTies() > 0 ? " OFFSET " + cursor.getTies() : "");
+    }
+
+    /**
+     * ORDER BY element -> result column label: positional number, output alias or a selected column.
+     * A qualified column ({@code b.id}) must be selected as exactly that column; an unqualified one
+     * names an output column, as in Postgres. The label must be unique among the output columns,
+     * since the page query filters on it by name. With {@code SELECT *} only single-table queries
+     * qualify. Anything else gets no cursor rather than one that filters on the wrong column.
+     */
+    private static String outputLabel(Expression expression, PlainSelect select, List<String> labels) {
+        if (expression instanceof LongValue position) {
+            int index = (int) position.getValue() - 1;
+            return index >= 0 && index < labels.size() && isUniqueOutput(labels.get(index), select) ? labels.get(index) : null;
+        }
+        String name = null;
+        for (SelectItem<?> item : select.getSelectItems()) {
+            boolean matches = expression instanceof Column column
+                    ? isQualified(column)
+                        ? item.getExpression() instanceof Column selected && sameQualifiedColumn(column, selected)
+                        : unquote(column.getColumnName()).equalsIgnoreCase(outputName(item))
+                    : item.getAlias() != null && Objects.equals(String.valueOf(item.getExpression()), String.valueOf(expression));
+            if (matches) {
+                if (name != null) {
+                    return null;
+                }
+                name = outputName(item);
+            }
+        }
+        if (name == null && expression instanceof Column column && isSingleTableStar(select)) {
+            name = column.getColumnName();
+        }
+        if (name == null || !isUniqueOutput(unquote(name), select)) {
+            return null;
+        }
+        String unquoted = unquote(name);
+        return labels.stream().filter(label -> label.equalsIgnoreCase(unquoted)).findFirst().orElse(null);
+    }
+
+    // Alias, or the column name for a bare column; null for unaliased expressions
+    private static String outputName(SelectItem<?> item) {
+        if (item.getAlias() != null) {
+            return unquote(item.getAlias().getName());
+        }
+        return item.getExpression() instanceof Column column ? unquote(column.getColumnName()) : null;
+    }
+
+    private static boolean sameQualifiedColumn(Column a, Column b) {
+        return isQualified(b)
+                && unquote(a.getFullyQualifiedName()).equalsIgnoreCase(unquote(b.getFullyQualifiedName()));
+    }
+
+    private static boolean isQualified(Column column) {
+        return column.getTable() != null && column.getTable().getName() != null;
+    }
+
+    // Another output column with the same name would make the label ambiguous (and the row map lossy)
+    private static boolean isUniqueOutput(String name, PlainSelect select) {
+        if (select.getSelectItems().stream().anyMatch(item -> item.getExpression() instanceof AllColumns)
+                && !isSingleTableStar(select)) {
+            return false;
+        }
+        return select.getSelectItems().stream().filter(item -> name.equalsIgnoreCase(outputName(item))).count() <= 1;
+    }
+
+    private static boolean isSingleTableStar(PlainSelect select) {
+        return (select.getJoins() == null || select.getJoins().isEmpty())
+                && select.getSelectItems().size() == 1
+                && select.getSelectItems().get(0).getExpression() instanceof AllColumns;
+    }
+
+    private static String unquote(String name) {
+        return name.replace("\"", "");
+    }
+
+    private static boolean sameKey(Map<String, Object> a, Map<String, Object> b, List<String> columns) {
+        return columns.stream().allMatch(column -> Objects.equals(a.get(column), b.get(column)));
+    }
+
+    // Temporal values keep their full precision and offset in ISO-8601. A Timestamp is pgjdbc's reading of
+    // either timestamp or timestamptz: the wall-clock time plus the JVM offset at that instant is right for
+    // both, since Postgres ignores the offset for timestamp, which is also how pgjdbc binds a Timestamp
+    private static String cursorValue(Object value) {
+        if (value instanceof Timestamp timestamp) {
+            return OffsetDateTime.of(timestamp.toLocalDateTime(),
+                    ZoneId.systemDefault().getRules().getOffset(timestamp.toInstant())).toString();
+        }
+        if (value instanceof java.sql.Date date) {
+            return date.toLocalDate().toString();
+        }
+        if (value instanceof java.sql.Time time) {
+            return time.toLocalTime().toString();
+        }
+        if (value instanceof TemporalAccessor) {
+            return value.toString(); // java.time types already print ISO-8601 with full precision
+        }
+        return String.valueOf(value);
+    }
+
+    // Non-numeric values go out as untyped literals so Postgres reads them as the column's type
+    // NaN and ±Infinity of a double precision key have no numeric literal; Postgres sorts and compares them as float8
+    private static String literal(String value, boolean numeric) {
+        if (numeric && NON_FINITE.contains(value)) {
+            return "'" + value + "'::float8";
+        }
+        return numeric ? new BigDecimal(value).toPlainString() : "'" + value.replace("'", "''") + "'";
+    }
+
+    private static String quoteIdentifier(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,71 @@
+package assistant.service;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+// One timer and one span per LLM round trip, tagged with the model and the pipeline step that made the call
+@Component
+public class LlmMetrics {
+    private final MeterRegistry meterRegistry;
+    private final RequestTracer requestTracer;
+
+    public LlmMetrics(MeterRegistry meterRegistry, RequestTracer requestTracer) {
+        this.meterRegistry = meterRegistry;
+        this.requestTracer = requestTracer;
+    }
+
+    // mode is "structured" (schema-constrained /api/chat) or "free_form"
+    public <T> T time(String model, String action, String mode, Supplier<T> call) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        RequestTracer.Scoped span = requestTracer.open("llm.call " + action,
+                "llm.model", model, "llm.action", action, "llm.mode", mode);
+        String outcome = "error";
+        try {
+            T result = call.get();
+            outcome = "ok";
+            return result;
+        } catch (RuntimeException e) {
+            span.span().error(e);
+            throw e;
+        } finally {
+            span.close();
+            sample.stop(meterRegistry.timer("assistant.llm.call",
+                    "model", model, "action", action, "mode", mode, "outcome", outcome));
+        }
+    }
+
+    // Free-form generation that keeps the token usage Ollama reports (generate(String) drops it)
+    public String generate(ChatLanguageModel chatModel, String model, String prompt) {
+        Response<AiMessage> response = chatModel.generate(UserMessage.from(prompt));
+        TokenUsage usage = response.tokenUsage();
+        if (usage != null) {
+            tokens(model, usage.inputTokenCount(), usage.outputTokenCount());
+        }
+        return response.content().text();
+    }
+
+    // Token counts of the call in progress: attributes of its span and assistant.llm.tokens{type}
+    public void tokens(String model, Integer promptTokens, Integer completionTokens) {
+        if (promptTokens != null) {
+            requestTracer.tag("llm.prompt_tokens", String.valueOf(promptTokens));
+            meterRegistry.summary("assistant.llm.tokens", "model", model, "type", "prompt").record(promptTokens);
+        }
+        if (completionTokens != null) {
+            requestTracer.tag("llm.completion_tokens", String.valueOf(completionTokens));
+            meterRegistry.summary("assistant.llm.tokens", "model", model, "type", "completion").record(completionTokens);
+        }
+    }
+
+    // A structured call that failed and was retried as free-form generation
+    public void fallback(String action) {
+        meterRegistry.counter("assistant.llm.fallback", "action", action).increment();
+    }
+}
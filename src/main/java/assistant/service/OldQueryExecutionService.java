@@ -3,7 +3,7 @@ package assistant.service;
 import assistant.mcp.McpActionDispatcher;
 import assistant.model.ConversationHistory;
 import assistant.model.ConversationTurn;
-import assistant.repository.ConversationHistoryRepository;
+import assistant.repository.ConversationStore;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.langchain4j.model.chat.ChatLanguageModel;
@@ -29,7 +29,7 @@ public class OldQueryExecutionService {
     private final JdbcTemplate jdbcTemplate;
     private final ChatLanguageModel chatModel;
 //    private final WebClient webClient;
-    private final ConversationHistoryRepository conversationHistoryRepository;
+    private final ConversationStore conversationStore;
     private final ObjectMapper objectMapper;
     private final SchemaService schemaService;
     private final EmbeddingService embeddingService;
@@ -45,7 +45,7 @@ public class OldQueryExecutionService {
     public OldQueryExecutionService(JdbcTemplate jdbcTemplate,
                                     @Qualifier("sqlOptimizedModel") ChatLanguageModel chatModel,
 //                                 WebClient webClient,
-                                    ConversationHistoryRepository conversationHistoryRepository,
+                                    ConversationStore conversationStore,
                                     SchemaService schemaService,
                                     EmbeddingService embeddingService,
                                     RAGService ragService,
@@ -53,7 +53,7 @@ public class OldQueryExecutionService {
         this.jdbcTemplate = jdbcTemplate;
         this.chatModel = chatModel;
 //        this.webClient = webClient;
-        this.conversationHistoryRepository = conversationHistoryRepository;
+        this.conversationStore = conversationStore;
         this.objectMapper = new ObjectMapper();
         this.schemaService = schemaService;
         this.embeddingService = embeddingService;
@@ -72,7 +72,7 @@ public class OldQueryExecutionService {
 
     public String processNaturalLanguageQuery(String userQuery, String conversationId) {
         //get conversation history
-        ConversationHistory history = conversationHistoryRepository.findByConversationId(conversationId)
+        ConversationHistory history = conversationStore.loadRecent(conversationId, 10)
                 .orElseGet(() -> {
                     ConversationHistory newHistory = new ConversationHistory();
                     newHistory.setConversationId(conversationId);
@@ -150,7 +150,6 @@ public class OldQueryExecutionService {
 
         //save conversation history to mongo
         ConversationTurn currentTurn = new ConversationTurn();
-        currentTurn.setTurn(history.getHistory().size() + 1);
         currentTurn.setUserQuery(userQuery);
         currentTurn.setGeneratedSql(llmResponse);
         currentTurn.setRawDbResult(rawDbResultJson);
@@ -159,8 +158,8 @@ public class OldQueryExecutionService {
         // For follow-up queries, you might want to summarize the rawDbResult and store it in contextFromPreviousTurn
         currentTurn.setContextFromPreviousTurn(summarizeResultForContext(rawDbResultJson));
 
-        history.getHistory().add(currentTurn);
-        conversationHistoryRepository.save(history);
+        history.addTurn(currentTurn);
+        conversationStore.appendTurns(history, List.of(currentTurn));
 
         return llmFormattedResponse;
     }
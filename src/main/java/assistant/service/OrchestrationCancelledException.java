@@ -0,0 +1,8 @@
+package assistant.service;
+
+// Thrown when an orchestration step runs past its deadline, exhausts its step budget or is cancelled
+public class OrchestrationCancelledException extends RuntimeException {
+    public OrchestrationCancelledException(String reason) {
+        super(reason);
+    }
+}
@@ -0,0 +1,168 @@
+package assistant.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-request budget for the orchestration loop: a step budget, a wall-clock deadline and a
+ * cancellation token. MCP actions, LLM calls and JDBC statements register cancel hooks so that
+ * hitting the deadline aborts in-flight work instead of letting it run to completion.
+ */
+@Slf4j
+public class OrchestrationContext {
+    private final int stepBudget;
+    private final Instant deadline;
+    private final AtomicInteger stepsTaken = new AtomicInteger();
+    private final List<Runnable> cancelHooks = new CopyOnWriteArrayList<>();
+    private volatile String cancelReason;
+    private volatile String partialAction;
+    private volatile Object partialResult;
+    private volatile ProgressListener progressListener;
+
+    // Told how far long-running work has got, e.g. rows read so far by a query; called on the worker thread
+    public interface ProgressListener {
+        void onProgress(long progress, String message);
+    }
+
+    public OrchestrationContext(int stepBudget, Duration timeout) {
+        this.stepBudget = stepBudget;
+        this.deadline = Instant.now().plus(timeout);
+    }
+
+    // For direct MCP calls that are not part of an orchestration loop
+    public static OrchestrationContext unbounded() {
+        return new OrchestrationContext(Integer.MAX_VALUE, Duration.ofDays(1));
+    }
+
+    // Consumes one step of the budget; false once the budget is spent
+    public boolean tryStep() {
+        return stepsTaken.incrementAndGet() <= stepBudget;
+    }
+
+    public int getStepsTaken() {
+        return stepsTaken.get();
+    }
+
+    public Duration remaining() {
+        Duration remaining = Duration.between(Instant.now(), deadline);
+        return remaining.isNegative() ? Duration.ZERO : remaining;
+    }
+
+    // Whole seconds left, at least 1, for Statement.setQueryTimeout
+    public int remainingSeconds() {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, remaining().toSeconds()));
+    }
+
+    public boolean isCancelled() {
+        return cancelReason != null;
+    }
+
+    public String getCancelReason() {
+        return cancelReason;
+    }
+
+    public void checkActive() {
+        if (cancelReason == null && remaining().isZero()) {
+            cancel("deadline exceeded");
+        }
+        if (cancelReason != null) {
+            throw new OrchestrationCancelledException(cancelReason);
+        }
+    }
+
+    // Registers work to abort on cancellation; the returned handle deregisters it
+    public Runnable onCancel(Runnable hook) {
+        if (cancelReason != null) {
+            hook.run();
+        }
+        cancelHooks.add(hook);
+        return () -> cancelHooks.remove(hook);
+    }
+
+    public void cancel(String reason) {
+        if (cancelReason != null) {
+            return;
+        }
+        cancelReason = reason;
+        log.info("Cancelling orchestration: {}", reason);
+        for (Runnable hook : cancelHooks) {
+            try {
+                hook.run();
+            } catch (Exception e) {
+                log.warn("Cancel hook failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Waits for the future until the deadline, cancelling it (with interruption) if the context is cancelled first
+    public <T> T await(Future<T> future) {
+        if (cancelReason != null) {
+            future.cancel(true);
+        }
+        checkActive();
+        Runnable deregister = onCancel(() -> future.cancel(true));
+        try {
+            return future.get(remaining().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            cancel("deadline exceeded");
+            throw new OrchestrationCancelledException(cancelReason);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel("interrupted");
+            throw new OrchestrationCancelledException(cancelReason);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (CancellationException e) {
+            throw new OrchestrationCancelledException(cancelReason != null ? cancelReason : "cancelled");
+        } finally {
+            deregister.run();
+        }
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    // A no-op unless someone (an MCP client that sent a progress token) is listening
+    public void reportProgress(long progress, String message) {
+        ProgressListener listener = progressListener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onProgress(progress, message);
+        } catch (RuntimeException e) {
+            log.debug("Progress listener failed: {}", e.getMessage());
+        }
+    }
+
+    // Remembers the most useful successful result so far, returned if the loop is cut short
+    public void recordPartialResult(String action, Object result) {
+        // A query result is more useful than anything produced after it (e.g. an EXPLAIN of a retry)
+        if (!"execute_query".equals(partialAction) || "execute_query".equals(action)) {
+            partialAction = action;
+            partialResult = result;
+        }
+    }
+
+    public String getPartialAction() {
+        return partialAction;
+    }
+
+    public Object getPartialResult() {
+        return partialResult;
+    }
+}
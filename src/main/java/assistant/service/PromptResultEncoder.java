@@ -0,0 +1,214 @@
+package assistant.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * Renders an MCP action result for the follow-up prompt within a token budget, so a large
+ * execute_query result or EXPLAIN plan does not inflate Ollama's prefill. Rows become a compact
+ * pipe table: columns with one value across all rows are stated once, a value repeated from the
+ * row above is shown as {@code "}, and when the rows do not fit, a head/tail/evenly spaced sample is
+ * shown with a per-column profile line. Omitted and server-truncated row counts are always stated.
+ */
+@Service
+public class PromptResultEncoder {
+    // Rough average for English text and SQL identifiers; no tokenizer for the Ollama model is available here
+    private static final int CHARS_PER_TOKEN = 4;
+
+    @Value("${orchestration.prompt.result-token-budget:1500}")
+    private int tokenBudget;
+
+    @Value("${orchestration.prompt.max-cell-chars:40}")
+    private int maxCellChars;
+
+    public String encode(Object result) {
+        return encode(result, tokenBudget);
+    }
+
+    public String encode(Object result, int budgetTokens) {
+        int budget = budgetTokens * CHARS_PER_TOKEN;
+        List<Map<String, Object>> rows = rows(result);
+        if (rows == null) {
+            return clip(String.valueOf(result), budget);
+        }
+        Object truncatedBy = result instanceof Map<?, ?> map ? map.get("truncatedBy") : null;
+
+        List<String> columns = new ArrayList<>(rows.get(0).keySet());
+        StringBuilder out = new StringBuilder();
+        out.append("Rows returned: ").append(rows.size());
+        if (truncatedBy != null) {
+            out.append(" (result cut off by the server at ").append(truncatedBy).append("; more rows exist)");
+        }
+        out.append('\n');
+
+        List<String> constant = rows.size() > 1 ? constantColumns(rows, columns) : List.of();
+        if (!constant.isEmpty()) {
+            out.append("Same value in every row: ");
+            for (int i = 0; i < constant.size(); i++) {
+                String column = constant.get(i);
+                out.append(i == 0 ? "" : ", ").append(column).append('=').append(cell(rows.get(0).get(column)));
+            }
+            out.append('\n');
+            columns.removeAll(constant);
+        }
+        if (columns.isEmpty()) {
+            return clip(out.toString(), budget);
+        }
+
+        String all = table(rows, columns, allIndices(rows.size()));
+        if (out.length() + all.length() <= budget) {
+            return out.append(all).toString();
+        }
+
+        // Profile first (up to half the budget) so the sample can be read against the whole result
+        String profile = clip(profileLines(rows, columns), budget / 2);
+        out.append("Column profile over all ").append(rows.size()).append(" rows:\n").append(profile);
+        int remaining = budget - out.length();
+
+        // Largest sample whose table still fits
+        int low = 1;
+        int high = rows.size() - 1;
+        String best = null;
+        int bestSize = 0;
+        while (low <= high) {
+            int size = (low + high) >>> 1;
+            TreeSet<Integer> sample = sampleIndices(size, rows.size());
+            String candidate = table(rows, columns, sample);
+            if (candidate.length() <= remaining) {
+                best = candidate;
+                bestSize = sample.size();
+                low = size + 1;
+            } else {
+                high = size - 1;
+            }
+        }
+        out.append("Sample of ").append(bestSize).append(" of ").append(rows.size())
+                .append(" rows (first, last and evenly spaced; ").append(rows.size() - bestSize)
+                .append(" rows omitted):\n");
+        return best == null ? clip(out.toString(), budget) : out.append(best).toString();
+    }
+
+    // execute_query returns either the row list or {rows, truncated, truncatedBy}; explain_query a list of plan lines
+    @SuppressWarnings("unchecked")
+    static List<Map<String, Object>> rows(Object result) {
+        Object rows = result instanceof Map<?, ?> map && map.get("rows") instanceof List<?> list ? list : result;
+        if (rows instanceof List<?> list && !list.isEmpty() && list.stream().allMatch(Map.class::isInstance)) {
+            return (List<Map<String, Object>>) list;
+        }
+        return null;
+    }
+
+    private String table(List<Map<String, Object>> rows, List<String> columns, TreeSet<Integer> indices) {
+        StringBuilder table = new StringBuilder();
+        if (columns.size() > 1) {
+            table.append(String.join(" | ", columns)).append('\n');
+        }
+        int previous = -1;
+        for (int index : indices) {
+            if (index != previous + 1) {
+                table.append("... ").append(index - previous - 1).append(" rows omitted ...\n");
+            }
+            Map<String, Object> row = rows.get(index);
+            Map<String, Object> above = index == previous + 1 && previous >= 0 ? rows.get(previous) : null;
+            for (int c = 0; c < columns.size(); c++) {
+                Object value = row.get(columns.get(c));
+                if (c > 0) {
+                    table.append(" | ");
+                }
+                // Ditto only against the row printed directly above, never across an omission marker
+                table.append(above != null && Objects.equals(value, above.get(columns.get(c))) ? "\"" : cell(value));
+            }
+            table.append('\n');
+            previous = index;
+        }
+        if (previous < rows.size() - 1) {
+            table.append("... ").append(rows.size() - 1 - previous).append(" rows omitted ...\n");
+        }
+        return table.toString();
+    }
+
+    private String profileLines(List<Map<String, Object>> rows, List<String> columns) {
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Object>> profiles =
+                (Map<String, Map<String, Object>>) ResultProfile.of(rows, 0).toMap().get("columns");
+        StringBuilder lines = new StringBuilder();
+        for (String column : columns) {
+            Map<String, Object> p = profiles.get(column);
+            lines.append(column).append(": nulls ").append(p.get("nulls")).append(", ~").append(p.get("distinct")).append(" distinct");
+            if (p.containsKey("min")) {
+                lines.append(", range ").append(cell(p.get("min"))).append(" .. ").append(cell(p.get("max")));
+            }
+            if (p.containsKey("mean")) {
+                lines.append(String.format(", mean %.4g", (Double) p.get("mean")));
+            }
+            if (p.get("topValues") instanceof List<?> top && !top.isEmpty()) {
+                lines.append(", most frequent:");
+                for (Object entry : top) {
+                    Map<?, ?> value = (Map<?, ?>) entry;
+                    lines.append(' ').append(cell(value.get("value"))).append(" (").append(value.get("count")).append(')');
+                }
+            }
+            lines.append('\n');
+        }
+        return lines.toString();
+    }
+
+    private static List<String> constantColumns(List<Map<String, Object>> rows, List<String> columns) {
+        List<String> constant = new ArrayList<>();
+        for (String column : columns) {
+            Object first = rows.get(0).get(column);
+            if (rows.stream().allMatch(row -> Objects.equals(first, row.get(column)))) {
+                constant.add(column);
+            }
+        }
+        return constant;
+    }
+
+    private static TreeSet<Integer> allIndices(int total) {
+        TreeSet<Integer> indices = new TreeSet<>();
+        for (int i = 0; i < total; i++) {
+            indices.add(i);
+        }
+        return indices;
+    }
+
+    // 40% head, 20% tail, the rest evenly spaced across the middle
+    private static TreeSet<Integer> sampleIndices(int size, int total) {
+        TreeSet<Integer> indices = new TreeSet<>();
+        int head = Math.max(1, (int) Math.ceil(size * 0.4));
+        int tail = Math.min(size - head, (int) (size * 0.2));
+        int middle = size - head - tail;
+        for (int i = 0; i < head; i++) {
+            indices.add(i);
+        }
+        for (int i = 0; i < tail; i++) {
+            indices.add(total - 1 - i);
+        }
+        int span = total - tail - head;
+        for (int i = 0; i < middle; i++) {
+            indices.add(head + (int) ((long) span * (2L * i + 1) / (2L * middle)));
+        }
+        return indices;
+    }
+
+    private String cell(Object value) {
+        if (value == null) {
+            return "NULL";
+        }
+        String text = String.valueOf(value).replace('\n', ' ').replace("|", "/");
+        return text.length() > maxCellChars ? text.substring(0, maxCellChars) + "..." : text;
+    }
+
+    private static String clip(String text, int maxChars) {
+        if (text.length() <= maxChars) {
+            return text;
+        }
+        return text.substring(0, maxChars) + "\n... [" + (text.length() - maxChars) + " more characters truncated]";
+    }
+}
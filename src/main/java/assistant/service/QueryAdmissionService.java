@@ -0,0 +1,106 @@
+package assistant.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Admission stage in front of execute_query: plans the statement with EXPLAIN (FORMAT JSON),
+ * rejects plans above the configured cost and caps the row count by injecting or tightening
+ * a LIMIT. The rejection reason is phrased so it can be fed straight back to generate_sql.
+ * Every statement is planned: the same question shape with other literals can select far more
+ * rows, so another statement's estimates are never reused for the decision.
+ */
+@Slf4j
+@Service
+public class QueryAdmissionService {
+    private final GeneratedQueryExecutor generatedQueryExecutor;
+    private final SqlAnalyzer sqlAnalyzer;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${query.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${query.admission.max-cost:1000000}")
+    private double maxCost;
+
+    @Value("${query.admission.row-limit:1000}")
+    private long rowLimit;
+
+    public QueryAdmissionService(GeneratedQueryExecutor generatedQueryExecutor,
+                                 SqlAnalyzer sqlAnalyzer,
+                                 ObjectMapper objectMapper,
+                                 MeterRegistry meterRegistry) {
+        this.generatedQueryExecutor = generatedQueryExecutor;
+        this.sqlAnalyzer = sqlAnalyzer;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public record Admission(String sql, String rejectionReason, double estimatedCost, double estimatedRows) {
+        public boolean admitted() {
+            return rejectionReason == null;
+        }
+    }
+
+    public Admission admit(String sql, OrchestrationContext context) {
+        String statement = sql.trim().replaceAll(";\\s*$", "");
+        if (!enabled) {
+            return new Admission(statement, null, -1, -1);
+        }
+        SqlAnalysis analysis = sqlAnalyzer.analyze(statement);
+        if (!analysis.isAllowed()) {
+            return new Admission(statement, "Query rejected: " + analysis.rejectionReason(), -1, -1);
+        }
+
+        JsonNode explained = explain(analysis.sql(), context);
+        JsonNode plan = explained.path("Plan");
+        double cost = plan.path("Total Cost").asDouble();
+        double rows = plan.path("Plan Rows").asDouble();
+
+        if (cost > maxCost) {
+            meterRegistry.counter("assistant.query.admission", "decision", "rejected").increment();
+            String reason = String.format(
+                    "Query rejected by cost guard: estimated cost %.0f exceeds the limit of %.0f (about %.0f rows, top node %s). "
+                            + "Regenerate the SQL with selective WHERE filters on key columns, fewer joins or an aggregate.",
+                    cost, maxCost, rows, plan.path("Node Type").asText());
+            log.info("{} SQL: {}", reason, statement);
+            return new Admission(statement, reason, cost, rows);
+        }
+        return admitted(statement, cost, rows);
+    }
+
+    private Admission admitted(String statement, double cost, double rows) {
+        String limited = applyRowLimit(statement, rows);
+        meterRegistry.counter("assistant.query.admission", "decision", limited.equals(statement) ? "admitted" : "rewritten").increment();
+        if (!limited.equals(statement)) {
+            log.info("Cost guard capped result (estimated {} rows) with LIMIT {}", rows, rowLimit);
+        }
+        return new Admission(limited, null, cost, rows);
+    }
+
+    // Tightens an existing LIMIT above the cap; adds one when the planner expects more rows than the cap
+    private String applyRowLimit(String sql, double estimatedRows) {
+        String limited = sqlAnalyzer.applyRowLimit(sql, rowLimit, estimatedRows > rowLimit);
+        if (limited != null) {
+            return limited;
+        }
+        // Unparseable by JSqlParser but accepted by Postgres: wrap instead of editing the text
+        return estimatedRows > rowLimit ? "SELECT * FROM (" + sql + ") AS limited LIMIT " + rowLimit : sql;
+    }
+
+    // EXPLAIN (FORMAT JSON) root: "Plan" with the cost and row estimates; planning only, nothing is executed
+    private JsonNode explain(String sql, OrchestrationContext context) {
+        String json = generatedQueryExecutor.query("EXPLAIN (FORMAT JSON) " + sql, context,
+                rs -> rs.next() ? rs.getString(1) : "[]");
+        try {
+            return objectMapper.readTree(json).path(0);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not read EXPLAIN output: " + e.getMessage(), e);
+        }
+    }
+}
@@ -1,54 +1,133 @@
 package assistant.service;
 
 import assistant.mcp.McpActionDispatcher;
+import assistant.mcp.McpParameterSchema;
 import assistant.model.ConversationHistory;
 import assistant.model.ConversationTurn;
-import assistant.repository.ConversationHistoryRepository;
+import assistant.model.KeysetCursor;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class QueryExecutionService {
+    private static final List<String> FIRST_STEP_ACTIONS = List.of("validate_user_request");
+    private static final List<String> FOLLOWUP_ACTIONS =
+            List.of("generate_sql", "check_query", "execute_query", "explain_query", "summarize_results");
+    private static final Map<String, Object> SQL_OUTPUT_SCHEMA = McpParameterSchema.sqlOnly();
+
     private final JdbcTemplate jdbcTemplate;
     private final ChatLanguageModel chatModel;
-    private final ConversationHistoryRepository conversationHistoryRepository;
     private final ObjectMapper objectMapper;
     private final SchemaService schemaService;
-    private final RAGService ragService;
+    private final RequestPreparationService requestPreparationService;
+    private final RequestCoalescer requestCoalescer;
+    private final GeneratedQueryExecutor generatedQueryExecutor;
+    private final QueryAdmissionService queryAdmissionService;
+    private final SqlAnalyzer sqlAnalyzer;
+    private final KeysetPaginator keysetPaginator;
+    private final MeterRegistry meterRegistry;
+    private final PromptResultEncoder promptResultEncoder;
+    private final ConversationContextManager conversationContextManager;
+    private final ConversationCache conversationCache;
+    private final QueryResultCache queryResultCache;
     private final McpActionDispatcher mcpActionDispatcher;
+    private final StructuredOutputService structuredOutput;
+    private final LlmMetrics llmMetrics;
+    private final RequestTracer requestTracer;
+    private final SpeculativeSqlGenerator speculativeSqlGenerator;
+    private final ExecutorService llmExecutor;
+    private final ScheduledExecutorService orchestrationScheduler;
 
     @Value("${llm.model.name}")
     private String llmModelName;
 
+    @Value("${query.profile.sample-rows:3}")
+    private int profileSampleRows;
+
+    @Value("${orchestration.max-steps:8}")
+    private int maxSteps;
+
+    @Value("${orchestration.timeout:PT90S}")
+    private Duration orchestrationTimeout;
+
+    @Value("${orchestration.coalescing.enabled:true}")
+    private boolean coalescingEnabled;
+
     public QueryExecutionService(JdbcTemplate jdbcTemplate,
                                  @Qualifier("sqlOptimizedModel") ChatLanguageModel chatModel,
-                                 ConversationHistoryRepository conversationHistoryRepository,
                                  SchemaService schemaService,
-                                 RAGService ragService,
-                                 McpActionDispatcher mcpActionDispatcher) {
+                                 RequestPreparationService requestPreparationService,
+                                 RequestCoalescer requestCoalescer,
+                                 GeneratedQueryExecutor generatedQueryExecutor,
+                                 QueryAdmissionService queryAdmissionService,
+                                 SqlAnalyzer sqlAnalyzer,
+                                 KeysetPaginator keysetPaginator,
+                                 MeterRegistry meterRegistry,
+                                 PromptResultEncoder promptResultEncoder,
+                                 ConversationContextManager conversationContextManager,
+                                 ConversationCache conversationCache,
+                                 QueryResultCache queryResultCache,
+                                 McpActionDispatcher mcpActionDispatcher,
+                                 StructuredOutputService structuredOutput,
+                                 LlmMetrics llmMetrics,
+                                 RequestTracer requestTracer,
+                                 SpeculativeSqlGenerator speculativeSqlGenerator,
+                                 @Qualifier("llmExecutor") ExecutorService llmExecutor,
+                                 @Qualifier("orchestrationScheduler") ScheduledExecutorService orchestrationScheduler) {
         this.jdbcTemplate = jdbcTemplate;
         this.chatModel = chatModel;
-        this.conversationHistoryRepository = conversationHistoryRepository;
         this.objectMapper = new ObjectMapper();
         this.schemaService = schemaService;
-        this.ragService = ragService;
+        this.requestPreparationService = requestPreparationService;
+        this.requestCoalescer = requestCoalescer;
+        this.generatedQueryExecutor = generatedQueryExecutor;
+        this.queryAdmissionService = queryAdmissionService;
+        this.sqlAnalyzer = sqlAnalyzer;
+        this.keysetPaginator = keysetPaginator;
+        this.meterRegistry = meterRegistry;
+        this.promptResultEncoder = promptResultEncoder;
+        this.conversationContextManager = conversationContextManager;
+        this.conversationCache = conversationCache;
+        this.queryResultCache = queryResultCache;
         this.mcpActionDispatcher = mcpActionDispatcher;
+        this.structuredOutput = structuredOutput;
+        this.llmMetrics = llmMetrics;
+        this.requestTracer = requestTracer;
+        this.speculativeSqlGenerator = speculativeSqlGenerator;
+        this.llmExecutor = llmExecutor;
+        this.orchestrationScheduler = orchestrationScheduler;
     }
 
     public String executeTestQuery(String workOrderId) {
@@ -60,79 +139,287 @@ public class QueryExecutionService {
         return jdbcTemplate.queryForObject(sql, new Object[]{workOrderUUID}, String.class);
     }
 
+    public OrchestrationContext newOrchestrationContext() {
+        return new OrchestrationContext(maxSteps, orchestrationTimeout);
+    }
+
     public String processNaturalLanguageQuery(String userQuery, String conversationId) {
-        ConversationHistory history = conversationHistoryRepository.findByConversationId(conversationId)
-                .orElseGet(() -> {
-                    ConversationHistory newHistory = new ConversationHistory();
-                    newHistory.setConversationId(conversationId);
-                    newHistory.setCreatedAt(Instant.now());
-                    newHistory.setUserId("anonymous");
-                    return newHistory;
-                });
-
-        String previousContext = history.getHistory().stream()
-                .map(turn -> "User: " + turn.getUserQuery() + "\nAI: " + turn.getLlmFormattedResponse())
-                .collect(Collectors.joining("\n"));
-
-        List<String> relevantRAGChunks = ragService.retrieveRelevantContext(userQuery, previousContext);
-        String ragContext = String.join("\n", relevantRAGChunks);
-        String databaseSchema = schemaService.getRelevantSchemaFromContext(ragContext);
+        return processNaturalLanguageQuery(userQuery, conversationId, newOrchestrationContext());
+    }
+
+    public String processNaturalLanguageQuery(String userQuery, String conversationId, OrchestrationContext context) {
+        // Aborts in-flight LLM calls and statements when the wall-clock deadline passes
+        ScheduledFuture<?> deadline = orchestrationScheduler.schedule(
+                () -> context.cancel("deadline exceeded"), context.remaining().toMillis(), TimeUnit.MILLISECONDS);
+        RequestTracer.Scoped span = requestTracer.open("assistant.request", "conversation.id", conversationId);
+        try {
+            return orchestrate(userQuery, conversationId, context);
+        } catch (OrchestrationCancelledException e) {
+            // Cancelled while preparing the request, before the loop could record anything
+            log.warn("Request preparation stopped: {}", e.getMessage());
+            return partialResultResponse(context);
+        } finally {
+            deadline.cancel(false);
+            span.tag("orchestration.steps", String.valueOf(context.getStepsTaken()));
+            span.tag("orchestration.cancel_reason", context.getCancelReason());
+            span.close();
+        }
+    }
+
+    private String orchestrate(String userQuery, String conversationId, OrchestrationContext context) {
+        String nextPage = continuePreviousResult(userQuery, conversationId, context);
+        if (nextPage != null) {
+            return nextPage;
+        }
+        RequestPreparationService.PreparedRequest prepared = requestPreparationService.prepare(userQuery, conversationId, context);
+        if (!coalescingEnabled) {
+            return runActionLoop(userQuery, conversationId, prepared, context).finalResult();
+        }
+        RequestCoalescer.Coalesced<LoopResult> shared = requestCoalescer.execute(
+                coalescingKey(userQuery, prepared.previousContext()), context,
+                () -> runActionLoop(userQuery, conversationId, prepared, context));
+        if (!shared.leader()) {
+            log.info("Coalesced with an identical in-flight question, recording {} shared turns", shared.value().turns().size());
+            recordSharedTurns(prepared.history(), shared.value().turns());
+        }
+        return shared.value().finalResult();
+    }
+
+    // Same question, same schema snapshot and same conversation context produce the same pipeline run
+    private String coalescingKey(String userQuery, String previousContext) {
+        String normalized = userQuery.toLowerCase().trim().replaceAll("\\s+", " ").replaceAll("[?!.\\s]+$", "");
+        return normalized + "|" + schemaService.getSchemaVersion() + "|" + previousContext.hashCode();
+    }
+
+    // Followers did not run the loop; give their own conversation the leader's turns
+    private void recordSharedTurns(ConversationHistory history, List<ConversationTurn> sharedTurns) {
+        List<ConversationTurn> appended = new ArrayList<>();
+        for (ConversationTurn shared : sharedTurns) {
+            ConversationTurn turn = new ConversationTurn();
+            turn.setUserQuery(shared.getUserQuery());
+            turn.setGeneratedSql(shared.getGeneratedSql());
+            turn.setRawDbResult(shared.getRawDbResult());
+            turn.setLlmFormattedResponse(shared.getLlmFormattedResponse());
+            turn.setKeysetCursor(shared.getKeysetCursor());
+            turn.setTimestamp(Instant.now());
+            history.addTurn(turn);
+            appended.add(turn);
+        }
+        persistTurns(history, appended);
+    }
+
+    // Write-behind flush of one request's turns; a failed write loses history, not the answer
+    private void persistTurns(ConversationHistory history, List<ConversationTurn> turns) {
+        try {
+            conversationCache.append(history, turns);
+            conversationContextManager.summarizeAsync(history);
+        } catch (Exception e) {
+            log.error("Failed to append {} turn(s) to conversation {}: {}",
+                    turns.size(), history.getConversationId(), e.getMessage(), e);
+        }
+    }
+
+    private LoopResult runActionLoop(String userQuery, String conversationId,
+                                     RequestPreparationService.PreparedRequest prepared, OrchestrationContext context) {
+        ConversationHistory history = prepared.history();
+        String previousContext = prepared.previousContext();
+        String ragContext = prepared.ragContext();
+        String databaseSchema = prepared.databaseSchema();
+        List<ConversationTurn> turns = new ArrayList<>();
 
         String prompt = buildLlmPrompt(userQuery, databaseSchema, ragContext, previousContext, conversationId);
 //        log.info("Generated LLM prompt: {}", prompt);
-        String llmResponse = chatModel.generate(prompt);
-        log.info("LLM response: {}", llmResponse);
+
+        // Values the model is told to copy into params; used to repair omissions locally
+        Map<String, String> knownValues = new HashMap<>();
+        knownValues.put("userQuery", userQuery);
+        knownValues.put("databaseSchema", databaseSchema);
+        knownValues.put("ragContext", ragContext);
+        knownValues.put("previousContext", previousContext);
+        knownValues.put("conversationId", conversationId);
 
         String finalResult = null;
         String lastAction = null;
         Map<String, Object> lastParams = null;
+        RequestTracer.Scoped step = null;
 
         try {
+            String llmResponse = generateAction(prompt, FIRST_STEP_ACTIONS, context);
+            log.info("LLM response: {}", llmResponse);
             while (true) {
-                JsonNode node = objectMapper.readTree(llmResponse);
-                if (!node.has("action")) {
+                JsonNode node = structuredOutput.parseLenient(llmResponse, "action");
+                if (node == null || !node.has("action")) {
                     finalResult = llmResponse;
                     break;
                 }
                 String action = node.get("action").asText();
-                Map<String, Object> params = objectMapper.convertValue(node.get("params"), Map.class);
-                log.info("LLM requested action: {}, params: {}", action, params);
-
-                Object mcpResult = mcpActionDispatcher.dispatch(action, params);
+                // One span per iteration: the action plus the LLM call that picks the next one
+                if (step != null) {
+                    step.close();
+                }
+                step = requestTracer.open("orchestration.step",
+                        "orchestration.step", String.valueOf(context.getStepsTaken() + 1), "mcp.action", action);
+                ObjectNode paramsNode = node.get("params") instanceof ObjectNode p ? p : objectMapper.createObjectNode();
+                List<String> paramProblems = structuredOutput.repairAndValidateParams(action, paramsNode, knownValues);
+                log.info("LLM requested action: {}, params: {}", action, paramsNode);
+
+                if (!context.tryStep()) {
+                    context.cancel("step budget of " + maxSteps + " actions exhausted");
+                    finalResult = partialResultResponse(context);
+                    break;
+                }
+                Object mcpResult = paramProblems.isEmpty()
+                        ? mcpActionDispatcher.dispatch(action, paramsNode, context)
+                        : Map.of("error", "Invalid params for " + action + ": " + String.join("; ", paramProblems));
                 log.info("MCP action result: {}", mcpResult);
 
                 // Save turn in history
                 ConversationTurn turn = new ConversationTurn();
-                turn.setTurn(history.getHistory().size() + 1);
                 turn.setUserQuery(userQuery);
                 turn.setLlmFormattedResponse(objectMapper.writeValueAsString(mcpResult));
                 turn.setTimestamp(Instant.now());
-                history.getHistory().add(turn);
-                conversationHistoryRepository.save(history);
+                if ("execute_query".equals(action) && mcpResult != null && !(mcpResult instanceof Map<?, ?> m && m.containsKey("error"))) {
+                    String sql = paramsNode.path("sql").asText();
+                    turn.setGeneratedSql(sql);
+                    turn.setKeysetCursor(keysetPaginator.cursorFor(sql, PromptResultEncoder.rows(mcpResult)));
+                }
+                // Kept in memory for this request; appended to Mongo once when the loop ends
+                history.addTurn(turn);
+                turns.add(turn);
 
                 boolean isTerminal = ("execute_query".equals(action) || "summarize_results".equals(action));
                 boolean hasError = mcpResult instanceof Map && ((Map<?, ?>) mcpResult).containsKey("error");
 
+                if (!hasError) {
+                    context.recordPartialResult(action, mcpResult);
+                }
                 if (isTerminal && !hasError) {
                     finalResult = objectMapper.writeValueAsString(mcpResult);
                     break;
                 }
 
+                // Feeds the error into the next generate_sql (param repair fills it in if the model omits it)
                 if (hasError) {
-                    params.put("failureReason", ((Map<?, ?>) mcpResult).get("error"));
+                    // The model gets another go with the error in its prompt
+                    meterRegistry.counter("assistant.orchestration.retries", "action", action).increment();
+                    knownValues.put("failureReason", String.valueOf(((Map<?, ?>) mcpResult).get("error")));
+                } else {
+                    knownValues.remove("failureReason");
                 }
 
-                llmResponse = chatModel.generate(
-                        buildFollowupPrompt(userQuery, databaseSchema, ragContext, previousContext, conversationId, action, mcpResult)
+                llmResponse = generateAction(
+                        buildFollowupPrompt(userQuery, databaseSchema, ragContext, previousContext, conversationId, action, mcpResult),
+                        FOLLOWUP_ACTIONS,
+                        context
                 );
                 log.info("Followup LLM response: {}", llmResponse);
             }
+        } catch (OrchestrationCancelledException e) {
+            log.warn("LLM orchestration stopped after {} steps: {}", context.getStepsTaken(), e.getMessage());
+            finalResult = partialResultResponse(context);
         } catch (Exception e) {
             log.error("Error in LLM orchestration: {}", e.getMessage(), e);
             finalResult = "Error: " + e.getMessage();
+        } finally {
+            if (step != null) {
+                step.close();
+            }
+            persistTurns(history, turns);
+        }
+
+        return new LoopResult(finalResult, turns);
+    }
+
+    /**
+     * "Show more" after a paged result: runs the next keyset page of the latest turn's query directly,
+     * with no LLM call. Returns null when the question is not a continuation or there is nothing to continue.
+     */
+    private String continuePreviousResult(String userQuery, String conversationId, OrchestrationContext context) {
+        if (!keysetPaginator.isContinuation(userQuery)) {
+            return null;
+        }
+        ConversationHistory history = conversationCache.loadRecent(conversationId, 1).orElse(null);
+        if (history == null || history.getHistory().isEmpty()) {
+            return null;
+        }
+        ConversationTurn previous = history.getHistory().get(history.getHistory().size() - 1);
+        KeysetCursor cursor = previous.getKeysetCursor();
+        if (cursor == null) {
+            meterRegistry.counter("assistant.pagination", "outcome", "no_cursor").increment();
+            return null;
+        }
+        String sql;
+        try {
+            sql = keysetPaginator.nextPageSql(cursor, keysetPaginator.requestedPageSize(userQuery, cursor));
+        } catch (RuntimeException e) {
+            // A cursor that cannot be rendered (e.g. stored by an older version) leaves the question to the LLM
+            log.warn("Cannot continue from the cursor of turn {}: {}", previous.getTurn(), e.getMessage());
+            meterRegistry.counter("assistant.pagination", "outcome", "invalid_cursor").increment();
+            return null;
+        }
+        log.info("Continuing result of turn {} (fingerprint {}) after {} rows: {}",
+                previous.getTurn(), cursor.getSqlFingerprint(), cursor.getRowsServed(), sql);
+        Object result = executeQuery(sql, context);
+        List<Map<String, Object>> rows = PromptResultEncoder.rows(result);
+        boolean failed = result instanceof Map<?, ?> m && m.containsKey("error");
+        meterRegistry.counter("assistant.pagination", "outcome", failed ? "failed" : "keyset").increment();
+        try {
+            ConversationTurn turn = new ConversationTurn();
+            turn.setUserQuery(userQuery);
+            turn.setGeneratedSql(sql);
+            turn.setLlmFormattedResponse(objectMapper.writeValueAsString(result));
+            turn.setTimestamp(Instant.now());
+            // An empty page keeps the old cursor, so asking again stays at the end instead of falling back to the LLM
+            turn.setKeysetCursor(failed ? null : rows == null ? cursor : keysetPaginator.advance(cursor, rows));
+            history.addTurn(turn);
+            persistTurns(history, List.of(turn));
+            return turn.getLlmFormattedResponse();
+        } catch (Exception e) {
+            log.error("Error saving continuation turn: {}", e.getMessage(), e);
+            return "Error: " + e.getMessage();
+        }
+    }
+
+    private record LoopResult(String finalResult, List<ConversationTurn> turns) {
+    }
+
+    // Best result gathered before the loop was cut short, flagged as partial
+    private String partialResultResponse(OrchestrationContext context) {
+        if (context.getPartialResult() == null) {
+            return "Error: Request stopped (" + context.getCancelReason() + ") before any result was produced.";
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("partial", true);
+        response.put("reason", context.getCancelReason());
+        response.put("lastAction", context.getPartialAction());
+        response.put("result", context.getPartialResult());
+        try {
+            return objectMapper.writeValueAsString(response);
+        } catch (Exception e) {
+            return String.valueOf(response);
         }
+    }
+
+    private String generateAction(String prompt, List<String> allowedActions, OrchestrationContext context) {
+        return context.await(llmExecutor.submit(requestTracer.wrap(() -> generateAction(prompt, allowedActions))));
+    }
 
-        return finalResult;
+    // Uses the schema-constrained Ollama call when enabled, falling back to free-form generation
+    private String generateAction(String prompt, List<String> allowedActions) {
+        if (structuredOutput.isEnabled()) {
+            try {
+                return llmMetrics.time(structuredOutput.getModelName(), "orchestrate", "structured",
+                        () -> structuredOutput.generate(prompt, structuredOutput.actionResponseSchema(allowedActions)));
+            } catch (Exception e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                log.warn("Structured output call failed, falling back to free-form generation: {}", e.getMessage());
+                llmMetrics.fallback("orchestrate");
+            }
+        }
+        return llmMetrics.time(structuredOutput.getModelName(), "orchestrate", "free_form",
+                () -> llmMetrics.generate(chatModel, structuredOutput.getModelName(), prompt));
     }
 
     private String buildLlmPrompt(String userQuery, String schema, String ragContext, String previousContext, String conversationId) {
@@ -263,7 +550,7 @@ public class QueryExecutionService {
         
                     Based on the above, provide the next MCP action as a JSON object.
                     """,
-                forceExecuteQuery, lastAction, lastResult, schema, ragContext, conversationHistorySection, userQuery, conversationId
+                forceExecuteQuery, lastAction, promptResultEncoder.encode(lastResult), schema, ragContext, conversationHistorySection, userQuery, conversationId
         );
     }
 
@@ -301,25 +588,18 @@ public class QueryExecutionService {
         if (codeBlocks.length >= 2) {
             String blockContent = codeBlocks[1].replaceFirst("(?i)^sql\\s*", "").trim();
             if (blockContent.toUpperCase().startsWith("SELECT")) {
-                return blockContent.replaceAll("\\s+", " ").trim();
+                return normalizeSql(blockContent);
             }
         }
 
-        // 2. Try to extract JSON and get the "sql" field
-        Pattern jsonPattern = Pattern.compile("\\{(?:[^{}]|\\{[^{}]*\\})*\\}");
-        Matcher jsonMatcher = jsonPattern.matcher(llmResponse);
-        if (jsonMatcher.find()) {
-            String json = jsonMatcher.group();
-            try {
-                JsonNode node = new ObjectMapper().readTree(json);
-                for (Iterator<String> it = node.fieldNames(); it.hasNext(); ) {
-                    String field = it.next();
-                    if (field.equalsIgnoreCase("sql")) {
-                        return node.get(field).asText().replaceAll("\\s+", " ").trim();
-                    }
+        // 2. Try to extract JSON (repaired locally if malformed) and get the "sql" field
+        JsonNode node = structuredOutput.parseLenient(llmResponse, "sql");
+        if (node != null) {
+            for (Iterator<String> it = node.fieldNames(); it.hasNext(); ) {
+                String field = it.next();
+                if (field.equalsIgnoreCase("sql")) {
+                    return normalizeSql(node.get(field).asText());
                 }
-            } catch (Exception e) {
-                throw new IllegalArgumentException("Found JSON but failed to parse: " + e.getMessage());
             }
         }
 
@@ -327,12 +607,17 @@ public class QueryExecutionService {
         Pattern selectPattern = Pattern.compile("(?is)SELECT[\\s\\S]*?;");
         Matcher matcher = selectPattern.matcher(llmResponse);
         if (matcher.find()) {
-            return matcher.group().replaceAll("\\s+", " ").trim();
+            return normalizeSql(matcher.group());
         }
 
         throw new IllegalArgumentException("No SQL query found in LLM response");
     }
 
+    // Deparsed from the AST when the SQL parses, so whitespace inside string literals is left alone
+    private String normalizeSql(String sql) {
+        return sqlAnalyzer.analyze(sql.trim()).sql();
+    }
+
     // Validates if the user query is relevant and actionable
     public String validateUserRequest(String userQuery) {
         if (userQuery == null || userQuery.trim().isEmpty()) {
@@ -344,8 +629,37 @@ public class QueryExecutionService {
 
     // Uses LLM to generate SQL from the user query (optionally with failure reason)
     public String generateSql(String userQuery, String failureReason, String databaseSchema, String ragContext, String previousContext, String conversationId) {
+        return generateSql(userQuery, failureReason, databaseSchema, ragContext, previousContext, conversationId,
+                OrchestrationContext.unbounded());
+    }
+
+    public String generateSql(String userQuery, String failureReason, String databaseSchema, String ragContext,
+                              String previousContext, String conversationId, OrchestrationContext context) {
         String prompt = buildGenerateSqlLlmPrompt(userQuery, failureReason, databaseSchema, ragContext, previousContext, conversationId);
-        String llmResponse = chatModel.generate(prompt);
+        if (speculativeSqlGenerator.isEnabled()) {
+            return speculativeSqlGenerator.generate(prompt,
+                    structuredOutput.isEnabled() ? SQL_OUTPUT_SCHEMA : null,
+                    this::extractCodeBlockFromResponse,
+                    context);
+        }
+        return context.await(llmExecutor.submit(requestTracer.wrap(() -> generateSqlOnce(prompt))));
+    }
+
+    private String generateSqlOnce(String prompt) {
+        if (structuredOutput.isEnabled()) {
+            try {
+                return extractCodeBlockFromResponse(llmMetrics.time(structuredOutput.getModelName(), "generate_sql", "structured",
+                        () -> structuredOutput.generate(prompt, SQL_OUTPUT_SCHEMA)));
+            } catch (Exception e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                log.warn("Structured SQL generation failed, falling back to free-form generation: {}", e.getMessage());
+                llmMetrics.fallback("generate_sql");
+            }
+        }
+        String llmResponse = llmMetrics.time(structuredOutput.getModelName(), "generate_sql", "free_form",
+                () -> llmMetrics.generate(chatModel, structuredOutput.getModelName(), prompt));
         return extractCodeBlockFromResponse(llmResponse);
     }
 
@@ -355,41 +669,135 @@ public class QueryExecutionService {
         if (sql == null || sql.trim().isEmpty()) {
             return "Query Check Failed: SQL is empty.";
         }
-        if (sql.toLowerCase().contains("drop") || sql.toLowerCase().contains("delete")) {
-            return "Query Check Failed: Dangerous SQL detected.";
+        SqlAnalysis analysis = sqlAnalyzer.analyze(sql);
+        if (!analysis.isAllowed()) {
+            return "Query Check Failed: " + analysis.rejectionReason() + ".";
+        }
+        if (!analysis.unknownTables().isEmpty()) {
+            return "Query Check Failed: unknown table(s) " + String.join(", ", analysis.unknownTables())
+                    + ". Use only tables from the DATABASE SCHEMA.";
+        }
+        if (!analysis.unknownColumns().isEmpty()) {
+            return "Query Check Passed. Can be executed. Warning: column(s) not found in the schema snapshot: "
+                    + String.join(", ", analysis.unknownColumns()) + ".";
         }
-        // Add more validation as needed
         return "Query Check Passed. Can be executed.";
     }
 
     // Executes the SQL and returns the result
     public Object executeQuery(String sql) {
+        return executeQuery(sql, OrchestrationContext.unbounded());
+    }
+
+    public Object executeQuery(String sql, OrchestrationContext context) {
         try {
-            List<Map<String, Object>> result = jdbcTemplate.queryForList(sql);
-            return result;
+            SqlAnalysis analysis = sqlAnalyzer.analyze(sql);
+            if (!analysis.isAllowed()) {
+                return Map.of("error", "Query rejected: " + analysis.rejectionReason());
+            }
+            Object cached = queryResultCache.get(analysis);
+            if (cached != null) {
+                return cached;
+            }
+            return executeUncached(sql, analysis, context);
         } catch (Exception e) {
             return Map.of("error", e.getMessage());
         }
     }
 
+    // Rejections and cache hits complete at once on the caller; only a real execution moves to the executor
+    public CompletableFuture<Object> executeQueryAsync(String sql, OrchestrationContext context, Executor executor) {
+        try {
+            SqlAnalysis analysis = sqlAnalyzer.analyze(sql);
+            if (!analysis.isAllowed()) {
+                return CompletableFuture.completedFuture(Map.of("error", "Query rejected: " + analysis.rejectionReason()));
+            }
+            Object cached = queryResultCache.get(analysis);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return executeUncached(sql, analysis, context);
+                } catch (Exception e) {
+                    return Map.of("error", e.getMessage());
+                }
+            }, executor);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(Map.of("error", e.getMessage()));
+        }
+    }
+
+    private Object executeUncached(String sql, SqlAnalysis analysis, OrchestrationContext context) {
+        QueryAdmissionService.Admission admission = queryAdmissionService.admit(sql, context);
+        if (!admission.admitted()) {
+            return Map.of("error", admission.rejectionReason());
+        }
+        GeneratedQueryExecutor.CollectedRows collected = generatedQueryExecutor.collectRows(admission.sql(), context);
+        queryResultCache.put(analysis, collected.rows(), collected.summary().truncatedBy(), collected.summary().bytes());
+        return collected.toResult();
+    }
+
+    // Streams rows as NDJSON under the same row/byte caps, without buffering the result
+    public void streamQuery(String sql, OutputStream out) throws IOException {
+        OrchestrationContext context = newOrchestrationContext();
+        SqlAnalysis analysis = sqlAnalyzer.analyze(sql);
+        if (!analysis.isAllowed()) {
+            out.write(objectMapper.writeValueAsBytes(Map.of("error", "Query rejected: " + analysis.rejectionReason())));
+            out.write('\n');
+            return;
+        }
+        QueryAdmissionService.Admission admission = queryAdmissionService.admit(sql, context);
+        if (!admission.admitted()) {
+            out.write(objectMapper.writeValueAsBytes(Map.of("error", admission.rejectionReason())));
+            out.write('\n');
+            return;
+        }
+        generatedQueryExecutor.streamNdjson(admission.sql(), context, out);
+    }
+
     // Returns the execution plan for the SQL
     public Object explainQuery(String sql) {
+        return explainQuery(sql, OrchestrationContext.unbounded());
+    }
+
+    // Same analyzer gate as execute_query, and the EXPLAIN is built from the deparsed statement, so
+    // text like "ANALYZE DELETE ..." never reaches Postgres behind the EXPLAIN keyword
+    public Object explainQuery(String sql, OrchestrationContext context) {
         try {
-            List<Map<String, Object>> plan = jdbcTemplate.queryForList("EXPLAIN " + sql);
+            SqlAnalysis analysis = sqlAnalyzer.analyze(sql);
+            if (!analysis.isAllowed()) {
+                return Map.of("error", "Query rejected: " + analysis.rejectionReason());
+            }
+            List<Map<String, Object>> plan = generatedQueryExecutor.query("EXPLAIN " + analysis.sql(), context,
+                    new RowMapperResultSetExtractor<>(new ColumnMapRowMapper()));
             return plan;
         } catch (Exception e) {
             return Map.of("error", e.getMessage());
         }
     }
 
-    // Summarizes a large result set (simple example)
-    public String summarizeResults(List<Map<String, Object>> results) {
+    // EXPLAIN is one statement, so it goes straight to the generated-SQL executor without holding another thread
+    public CompletableFuture<Object> explainQueryAsync(String sql, OrchestrationContext context) {
+        try {
+            SqlAnalysis analysis = sqlAnalyzer.analyze(sql);
+            if (!analysis.isAllowed()) {
+                return CompletableFuture.completedFuture(Map.of("error", "Query rejected: " + analysis.rejectionReason()));
+            }
+            return generatedQueryExecutor.queryAsync("EXPLAIN " + analysis.sql(), context,
+                            new RowMapperResultSetExtractor<>(new ColumnMapRowMapper()))
+                    .<Object>thenApply(plan -> plan)
+                    .exceptionally(e -> Map.of("error", String.valueOf((e instanceof CompletionException ? e.getCause() : e).getMessage())));
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(Map.of("error", e.getMessage()));
+        }
+    }
+
+    // Summarizes a large result set as a per-column profile (nulls, range, distinct, top values, histogram)
+    public Object summarizeResults(List<Map<String, Object>> results) {
         if (results == null || results.isEmpty()) {
             return "No results to summarize.";
         }
-        // Simple summary: number of rows and columns
-        int rowCount = results.size();
-        int colCount = results.get(0).size();
-        return "Rows: " + rowCount + ", Columns: " + colCount;
+        return ResultProfile.of(results, profileSampleRows).toMap();
     }
 }
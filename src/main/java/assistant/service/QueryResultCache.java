@@ -0,0 +1,238 @@
+package assistant.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches execute_query results keyed on the statement's literal-free fingerprint plus its
+ * literal values, so the same SELECT asked again (by the same or another user) does not go back
+ * to the two-connection pool. Rows are stored compactly as one column header plus Object[] per
+ * row, bounded by TTL, entry count and serialized bytes. Entries are dropped per referenced table,
+ * either explicitly or when the scheduled check sees that table's write counters move in
+ * pg_stat_user_tables.
+ */
+@Slf4j
+@Service
+public class QueryResultCache {
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, CachedResult> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> tableWriteCounters = new ConcurrentHashMap<>();
+    private final Map<String, TableStats> tableStats = new ConcurrentHashMap<>();
+    private long totalBytes;
+
+    @Value("${query.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${query.cache.ttl:PT5M}")
+    private Duration ttl;
+
+    @Value("${query.cache.max-entries:500}")
+    private int maxEntries;
+
+    @Value("${query.cache.max-bytes:64MB}")
+    private DataSize maxBytes;
+
+    public QueryResultCache(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("assistant.query.cache.entries", this, c -> c.size()).register(meterRegistry);
+        Gauge.builder("assistant.query.cache.bytes", this, c -> c.bytes()).register(meterRegistry);
+    }
+
+    public record CachedResult(List<String> columns, List<Object[]> rows, String truncatedBy, long bytes,
+                               Set<String> tables, long expiresAtNanos) {
+        // Same shape GeneratedQueryExecutor.collect returns
+        public Object toResult() {
+            List<Map<String, Object>> materialized = new ArrayList<>(rows.size());
+            for (Object[] row : rows) {
+                Map<String, Object> map = new LinkedHashMap<>(columns.size());
+                for (int i = 0; i < columns.size(); i++) {
+                    map.put(columns.get(i), row[i]);
+                }
+                materialized.add(map);
+            }
+            if (truncatedBy == null) {
+                return materialized;
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("rows", materialized);
+            result.put("truncated", true);
+            result.put("truncatedBy", truncatedBy);
+            return result;
+        }
+    }
+
+    // Fingerprint alone would merge "WHERE id = 1" and "WHERE id = 2"; the literals keep them apart
+    public static String key(SqlAnalysis analysis) {
+        return analysis.fingerprint() + ":" + analysis.literals();
+    }
+
+    public synchronized Object get(SqlAnalysis analysis) {
+        if (!enabled) {
+            return null;
+        }
+        String key = key(analysis);
+        CachedResult cached = entries.get(key);
+        if (cached != null && cached.expiresAtNanos() - System.nanoTime() <= 0) {
+            remove(key);
+            cached = null;
+        }
+        boolean hit = cached != null;
+        meterRegistry.counter("assistant.query.cache", "result", hit ? "hit" : "miss").increment();
+        for (String table : analysis.tables()) {
+            statsFor(table).record(hit);
+        }
+        return hit ? cached.toResult() : null;
+    }
+
+    public synchronized void put(SqlAnalysis analysis, List<Map<String, Object>> rows, String truncatedBy, long bytes) {
+        if (!enabled || analysis.tables().isEmpty() || bytes > maxBytes.toBytes() / 4) {
+            return; // table-less statements (now(), random()) cannot be invalidated; huge results would evict everything
+        }
+        List<String> columns = rows.isEmpty() ? List.of() : List.copyOf(rows.get(0).keySet());
+        List<Object[]> compact = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            compact.add(row.values().toArray());
+        }
+        String key = key(analysis);
+        remove(key);
+        entries.put(key, new CachedResult(columns, compact, truncatedBy, bytes, analysis.tables(), System.nanoTime() + ttl.toNanos()));
+        totalBytes += bytes;
+        evict();
+    }
+
+    public synchronized int invalidateTable(String table) {
+        String name = table.toLowerCase();
+        int removed = 0;
+        for (Iterator<Map.Entry<String, CachedResult>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, CachedResult> entry = it.next();
+            if (entry.getValue().tables().contains(name)) {
+                totalBytes -= entry.getValue().bytes();
+                it.remove();
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            log.info("Invalidated {} cached result(s) for table {}", removed, name);
+            meterRegistry.counter("assistant.query.cache.invalidations", "table", name).increment(removed);
+        }
+        return removed;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    // Per-table hit ratio since startup, also published as assistant.query.cache.hit.ratio{table}
+    public Map<String, Map<String, Object>> tableHitRatios() {
+        Map<String, Map<String, Object>> ratios = new TreeMap<>();
+        tableStats.forEach((table, stats) -> ratios.put(table, Map.of(
+                "hits", stats.hits.sum(), "misses", stats.misses.sum(), "hitRatio", stats.ratio())));
+        return ratios;
+    }
+
+    /**
+     * Compares n_tup_ins/upd/del per table with the previous run and drops entries for tables that
+     * changed. Cheaper than LISTEN/NOTIFY triggers and needs no DDL on a database we only read.
+     */
+    @Scheduled(fixedDelayString = "${query.cache.invalidation-interval:PT30S}")
+    public void invalidateChangedTables() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<Map<String, Object>> stats = jdbcTemplate.queryForList(
+                    "SELECT relname, n_tup_ins + n_tup_upd + n_tup_del AS writes FROM pg_stat_user_tables");
+            for (Map<String, Object> row : stats) {
+                String table = String.valueOf(row.get("relname")).toLowerCase();
+                long writes = ((Number) row.get("writes")).longValue();
+                Long previous = tableWriteCounters.put(table, writes);
+                if (previous != null && previous != writes) {
+                    invalidateTable(table);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Could not read table write counters, clearing result cache: {}", e.getMessage());
+            clear();
+        }
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized long bytes() {
+        return totalBytes;
+    }
+
+    private void remove(String key) {
+        CachedResult removed = entries.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.bytes();
+        }
+    }
+
+    // Expired entries first, then least recently used until both bounds hold
+    private void evict() {
+        long now = System.nanoTime();
+        Collection<CachedResult> values = entries.values();
+        values.removeIf(entry -> {
+            boolean expired = entry.expiresAtNanos() - now <= 0;
+            if (expired) {
+                totalBytes -= entry.bytes();
+            }
+            return expired;
+        });
+        Iterator<Map.Entry<String, CachedResult>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || totalBytes > maxBytes.toBytes()) && eldest.hasNext()) {
+            totalBytes -= eldest.next().getValue().bytes();
+            eldest.remove();
+            meterRegistry.counter("assistant.query.cache.evictions").increment();
+        }
+    }
+
+    private TableStats statsFor(String table) {
+        return tableStats.computeIfAbsent(table, name -> {
+            TableStats stats = new TableStats();
+            Gauge.builder("assistant.query.cache.hit.ratio", stats, TableStats::ratio)
+                    .tag("table", name)
+                    .register(meterRegistry);
+            return stats;
+        });
+    }
+
+    private static final class TableStats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        void record(boolean hit) {
+            (hit ? hits : misses).increment();
+        }
+
+        double ratio() {
+            long h = hits.sum();
+            long total = h + misses.sum();
+            return total == 0 ? 0.0 : (double) h / total;
+        }
+    }
+}
@@ -51,14 +51,17 @@ public class RAGService {
     }
 
     public List<String> retrieveRelevantContext(String userQuery, String previousContext) {
-        List<String> relevantChunks = new ArrayList<>();
         String queryForEmbedding = userQuery;
         if (!previousContext.isEmpty()) {
             queryForEmbedding = previousContext + "\n" + userQuery; // Combine for better context
         }
 
-        List<Double> queryEmbedding = embeddingService.getEmbedding(queryForEmbedding);
+        return retrieveRelevantContext(embeddingService.getEmbedding(queryForEmbedding));
+    }
 
+    // Similarity search for an already computed query embedding
+    public List<String> retrieveRelevantContext(List<Double> queryEmbedding) {
+        List<String> relevantChunks = new ArrayList<>();
         if (queryEmbedding.isEmpty()) {
             return Collections.emptyList();
         }
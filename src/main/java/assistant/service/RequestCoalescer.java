@@ -0,0 +1,63 @@
+package assistant.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// Single-flight: concurrent callers with the same key share one in-flight execution and its result.
+// The shared run uses the leader's context, so a leader that is cancelled (disconnect, deadline) ends
+// with a partial answer; that is not handed on. Its followers are released and run the work again.
+@Component
+public class RequestCoalescer {
+    // Completes a leader's future when its run was cancelled and must not be shared
+    private static final Object RERUN = new Object();
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+
+    public RequestCoalescer(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        meterRegistry.gaugeMapSize("assistant.coalesce.in_flight", Tags.empty(), inFlight);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> Coalesced<T> execute(String key, OrchestrationContext context, Supplier<T> work) {
+        while (true) {
+            CompletableFuture<Object> mine = new CompletableFuture<>();
+            CompletableFuture<Object> existing = inFlight.putIfAbsent(key, mine);
+            if (existing != null) {
+                // Wait on a copy so a follower's own deadline cannot cancel the shared execution
+                Object value = context.await(existing.copy());
+                if (value == RERUN) {
+                    meterRegistry.counter("assistant.coalesce", "role", "rerun").increment();
+                    continue;
+                }
+                meterRegistry.counter("assistant.coalesce", "role", "follower").increment();
+                return new Coalesced<>((T) value, false);
+            }
+            meterRegistry.counter("assistant.coalesce", "role", "leader").increment();
+            // Removed before completing, so released followers cannot find the finished run again
+            try {
+                T value = work.get();
+                inFlight.remove(key, mine);
+                mine.complete(context.isCancelled() ? RERUN : value);
+                return new Coalesced<>(value, true);
+            } catch (RuntimeException | Error e) {
+                inFlight.remove(key, mine);
+                if (context.isCancelled()) {
+                    mine.complete(RERUN);
+                } else {
+                    mine.completeExceptionally(e);
+                }
+                throw e;
+            }
+        }
+    }
+
+    public record Coalesced<T>(T value, boolean leader) {
+    }
+}
@@ -0,0 +1,171 @@
+package assistant.service;
+
+import assistant.model.ConversationHistory;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Builds everything the first LLM call needs as a small stage graph instead of a straight sequence:
+ *
+ * <pre>
+ *   history --> previousContext --+
+ *   embedding(userQuery) ---------+--> rag --+
+ *   schemaWarm ------------------------------+--> schema
+ * </pre>
+ *
+ * The Mongo read, the embedding of the bare user query and the schema snapshot load overlap.
+ * When the conversation has prior turns the retrieval still embeds history + query as before,
+ * so the speculative bare-query embedding is only used for fresh conversations. previousContext is
+ * the rolling summary plus the recent turns (ConversationContextManager), not the full history.
+ */
+@Slf4j
+@Service
+public class RequestPreparationService {
+    private final ConversationCache conversationCache;
+    private final EmbeddingService embeddingService;
+    private final RAGService ragService;
+    private final SchemaService schemaService;
+    private final ConversationContextManager conversationContextManager;
+    private final ExecutorService executor;
+    private final MeterRegistry meterRegistry;
+    private final RequestTracer requestTracer;
+
+    public RequestPreparationService(ConversationCache conversationCache,
+                                     EmbeddingService embeddingService,
+                                     RAGService ragService,
+                                     SchemaService schemaService,
+                                     ConversationContextManager conversationContextManager,
+                                     @Qualifier("preparationExecutor") ExecutorService executor,
+                                     MeterRegistry meterRegistry,
+                                     RequestTracer requestTracer) {
+        this.conversationCache = conversationCache;
+        this.embeddingService = embeddingService;
+        this.ragService = ragService;
+        this.schemaService = schemaService;
+        this.conversationContextManager = conversationContextManager;
+        this.executor = executor;
+        this.meterRegistry = meterRegistry;
+        this.requestTracer = requestTracer;
+    }
+
+    public PreparedRequest prepare(String userQuery, String conversationId, OrchestrationContext context) {
+        StageTimings timings = new StageTimings(meterRegistry, requestTracer);
+        // Stage spans become children of the request span on whichever worker runs them
+        Executor stageExecutor = requestTracer.propagating(executor);
+
+        CompletableFuture<ConversationHistory> history = CompletableFuture.supplyAsync(
+                () -> timings.time("history", List.of(), () -> loadHistory(conversationId)), stageExecutor);
+        CompletableFuture<List<Double>> queryEmbedding = CompletableFuture.supplyAsync(
+                () -> timings.time("embedding", List.of(), () -> embeddingService.getEmbedding(userQuery)), stageExecutor);
+        CompletableFuture<Void> schemaWarm = CompletableFuture.runAsync(
+                () -> timings.time("schemaWarm", List.of(), () -> {
+                    schemaService.warmSchemaSnapshot();
+                    return null;
+                }), stageExecutor);
+
+        CompletableFuture<String> previousContext = history.thenApply(h -> timings.time("previousContext", List.of("history"),
+                () -> conversationContextManager.buildContext(h)));
+        CompletableFuture<String> ragContext = previousContext.thenCombineAsync(queryEmbedding, (prev, embedding) ->
+                timings.time("rag", List.of("previousContext", "embedding"), () -> String.join("\n", prev.isEmpty()
+                        ? ragService.retrieveRelevantContext(embedding)
+                        : ragService.retrieveRelevantContext(userQuery, prev))), stageExecutor);
+        CompletableFuture<String> databaseSchema = ragContext.thenCombine(schemaWarm, (rag, ignored) ->
+                timings.time("schema", List.of("rag", "schemaWarm"), () -> schemaService.getRelevantSchemaFromContext(rag)));
+
+        CompletableFuture<PreparedRequest> prepared = databaseSchema.thenApply(schema -> new PreparedRequest(
+                history.join(), previousContext.join(), ragContext.join(), schema));
+        PreparedRequest result = context.await(prepared);
+        meterRegistry.timer("assistant.request.preparation").record(System.nanoTime() - timings.origin, TimeUnit.NANOSECONDS);
+        log.info("Request preparation took {} ms; critical path: {}; stages: {}",
+                timings.elapsedMillis(), timings.criticalPath("schema"), timings.summary());
+        return result;
+    }
+
+    private ConversationHistory loadHistory(String conversationId) {
+        return conversationCache.loadRecent(conversationId, conversationContextManager.turnsToLoad())
+                .orElseGet(() -> {
+                    ConversationHistory newHistory = new ConversationHistory();
+                    newHistory.setConversationId(conversationId);
+                    newHistory.setCreatedAt(Instant.now());
+                    newHistory.setUserId("anonymous");
+                    return newHistory;
+                });
+    }
+
+    public record PreparedRequest(ConversationHistory history, String previousContext, String ragContext,
+                                  String databaseSchema) {
+    }
+
+    // Start/end offsets of each stage plus its dependencies, used to report the critical path; each
+    // stage is also recorded in assistant.request.stage (embedding, rag, schema selection, ...)
+    static final class StageTimings {
+        private final long origin = System.nanoTime();
+        private final Map<String, long[]> spans = new ConcurrentHashMap<>();
+        private final Map<String, List<String>> dependencies = new ConcurrentHashMap<>();
+        private final MeterRegistry meterRegistry;
+        private final RequestTracer requestTracer;
+
+        StageTimings(MeterRegistry meterRegistry, RequestTracer requestTracer) {
+            this.meterRegistry = meterRegistry;
+            this.requestTracer = requestTracer;
+        }
+
+        <T> T time(String stage, List<String> dependsOn, Supplier<T> work) {
+            long start = System.nanoTime() - origin;
+            try {
+                return requestTracer.trace("prepare." + stage, work);
+            } finally {
+                long end = System.nanoTime() - origin;
+                spans.put(stage, new long[]{start, end});
+                dependencies.put(stage, dependsOn);
+                meterRegistry.timer("assistant.request.stage", "stage", stage).record(end - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        long elapsedMillis() {
+            return (System.nanoTime() - origin) / 1_000_000;
+        }
+
+        // Walks back from the last stage, always through the dependency that finished latest
+        String criticalPath(String last) {
+            List<String> path = new ArrayList<>();
+            String current = last;
+            while (current != null && spans.containsKey(current)) {
+                path.add(current + "(" + durationMillis(current) + "ms)");
+                current = dependencies.getOrDefault(current, List.of()).stream()
+                        .filter(spans::containsKey)
+                        .max((a, b) -> Long.compare(spans.get(a)[1], spans.get(b)[1]))
+                        .orElse(null);
+            }
+            Collections.reverse(path);
+            return String.join(" -> ", path);
+        }
+
+        String summary() {
+            return spans.keySet().stream()
+                    .sorted((a, b) -> Long.compare(spans.get(a)[0], spans.get(b)[0]))
+                    .map(stage -> stage + "=" + spans.get(stage)[0] / 1_000_000 + "+" + durationMillis(stage) + "ms")
+                    .collect(Collectors.joining(", "));
+        }
+
+        private long durationMillis(String stage) {
+            long[] span = spans.get(stage);
+            return (span[1] - span[0]) / 1_000_000;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package assistant.service;
+
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Spans for one question's pipeline: the request, each orchestration step, LLM calls, MCP actions and
+ * generated statements. A new span is a child of the span current on the calling thread. Work handed
+ * to an executor does not inherit that automatically, so hand-offs go through {@link #wrap}, which
+ * captures the current span on submission and makes it current on the worker. A no-op when tracing
+ * is switched off (management.tracing.enabled=false).
+ */
+@Component
+public class RequestTracer {
+    private final Tracer tracer;
+
+    public RequestTracer(ObjectProvider<Tracer> tracer) {
+        this.tracer = tracer.getIfAvailable(() -> Tracer.NOOP);
+    }
+
+    // Starts a child of the current span and makes it current until the returned scope is closed
+    public Scoped open(String name, String... tags) {
+        Span span = start(name, tags);
+        return new Scoped(span, tracer.withSpan(span));
+    }
+
+    // A started child of the current span that is not made current, for work that ends on another thread
+    public Span start(String name, String... tags) {
+        Span span = tracer.nextSpan().name(name);
+        for (int i = 0; i + 1 < tags.length; i += 2) {
+            if (tags[i + 1] != null) {
+                span.tag(tags[i], tags[i + 1]);
+            }
+        }
+        return span.start();
+    }
+
+    public <T> T inScope(Span span, Supplier<T> work) {
+        try (Tracer.SpanInScope ignored = tracer.withSpan(span)) {
+            return work.get();
+        }
+    }
+
+    public static void end(Span span, Throwable error) {
+        if (error != null) {
+            span.error(error);
+        }
+        span.end();
+    }
+
+    public <T> T trace(String name, Supplier<T> work, String... tags) {
+        Scoped scoped = open(name, tags);
+        try {
+            return work.get();
+        } catch (RuntimeException e) {
+            scoped.span().error(e);
+            throw e;
+        } finally {
+            scoped.close();
+        }
+    }
+
+    // Adds an attribute to the current span, if there is one
+    public void tag(String key, String value) {
+        Span span = tracer.currentSpan();
+        if (span != null && value != null) {
+            span.tag(key, value);
+        }
+    }
+
+    public void error(Throwable error) {
+        Span span = tracer.currentSpan();
+        if (span != null) {
+            span.error(error);
+        }
+    }
+
+    public <T> Callable<T> wrap(Callable<T> work) {
+        Span parent = tracer.currentSpan();
+        if (parent == null) {
+            return work;
+        }
+        return () -> {
+            try (Tracer.SpanInScope ignored = tracer.withSpan(parent)) {
+                return work.call();
+            }
+        };
+    }
+
+    public Runnable wrap(Runnable work) {
+        Span parent = tracer.currentSpan();
+        if (parent == null) {
+            return work;
+        }
+        return () -> {
+            try (Tracer.SpanInScope ignored = tracer.withSpan(parent)) {
+                work.run();
+            }
+        };
+    }
+
+    // Runs every task with the span that was current when this was called
+    public Executor propagating(Executor executor) {
+        Span parent = tracer.currentSpan();
+        if (parent == null) {
+            return executor;
+        }
+        return command -> executor.execute(() -> {
+            try (Tracer.SpanInScope ignored = tracer.withSpan(parent)) {
+                command.run();
+            }
+        });
+    }
+
+    // Ends the span and restores the previously current one; must be closed on the thread that opened it
+    public record Scoped(Span span, Tracer.SpanInScope scope) implements AutoCloseable {
+        public void tag(String key, String value) {
+            if (value != null) {
+                span.tag(key, value);
+            }
+        }
+
+        @Override
+        public void close() {
+            scope.close();
+            span.end();
+        }
+    }
+}
@@ -15,8 +15,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 @Service
@@ -24,7 +27,8 @@ public class SchemaService {
 
     private final DataSource dataSource;
     private String cachedSchema; // Cache the schema for performance
-    private List<TableInfo> cachedTableInfos = null;
+    private volatile List<TableInfo> cachedTableInfos = null;
+    private final AtomicLong schemaVersion = new AtomicLong();
     private final ObjectMapper mapper;
     private Resource schemaDescription;
 
@@ -157,7 +161,37 @@ public class SchemaService {
         return tables;
     }
 
+    // Loads the table snapshot ahead of time so schema selection does not pay for it on the critical path
+    public void warmSchemaSnapshot() {
+        try {
+            fetchTableInfos();
+        } catch (SQLException e) {
+            log.error("Error warming schema snapshot: {}", e.getMessage());
+        }
+    }
+
+    // Lower-cased table name -> lower-cased column names of the current snapshot
+    public Map<String, Set<String>> getColumnsByTable() {
+        Map<String, Set<String>> columnsByTable = new HashMap<>();
+        try {
+            for (TableInfo info : fetchTableInfos()) {
+                Set<String> columns = new HashSet<>();
+                info.getColumns().forEach(column -> columns.add(column.toLowerCase()));
+                columnsByTable.put(info.getTableName().toLowerCase(), columns);
+            }
+        } catch (SQLException e) {
+            log.error("Error reading schema snapshot: {}", e.getMessage());
+        }
+        return columnsByTable;
+    }
+
+    // Bumped whenever the cached snapshot is dropped; callers key derived data on it
+    public long getSchemaVersion() {
+        return schemaVersion.get();
+    }
+
     public void clearTableInfoCache() {
+        schemaVersion.incrementAndGet();
         cachedTableInfos = null;
     }
 
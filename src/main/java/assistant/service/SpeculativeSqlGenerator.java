@@ -0,0 +1,141 @@
+package assistant.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Generates several SQL candidates concurrently (one per configured temperature), validates each
+// with a plain EXPLAIN and returns the first one Postgres accepts, so a bad generation costs an
+// EXPLAIN instead of a failed execute_query plus another full LLM round.
+@Slf4j
+@Service
+public class SpeculativeSqlGenerator {
+    private final StructuredOutputService structuredOutput;
+    private final GeneratedQueryExecutor generatedQueryExecutor;
+    private final SqlAnalyzer sqlAnalyzer;
+    private final ExecutorService executor;
+    private final MeterRegistry meterRegistry;
+    private final LlmMetrics llmMetrics;
+    private final RequestTracer requestTracer;
+
+    @Value("${sql.speculative.enabled:false}")
+    private boolean enabled;
+
+    @Value("${sql.speculative.temperatures:0.0,0.3,0.7}")
+    private List<Double> temperatures;
+
+    public SpeculativeSqlGenerator(StructuredOutputService structuredOutput,
+                                   GeneratedQueryExecutor generatedQueryExecutor,
+                                   SqlAnalyzer sqlAnalyzer,
+                                   @Qualifier("sqlCandidateExecutor") ExecutorService executor,
+                                   MeterRegistry meterRegistry,
+                                   LlmMetrics llmMetrics,
+                                   RequestTracer requestTracer) {
+        this.structuredOutput = structuredOutput;
+        this.generatedQueryExecutor = generatedQueryExecutor;
+        this.sqlAnalyzer = sqlAnalyzer;
+        this.executor = executor;
+        this.meterRegistry = meterRegistry;
+        this.llmMetrics = llmMetrics;
+        this.requestTracer = requestTracer;
+    }
+
+    public boolean isEnabled() {
+        return enabled && temperatures.size() > 1;
+    }
+
+    /**
+     * Returns the first candidate whose EXPLAIN succeeds. If every candidate fails, the first
+     * extracted candidate is returned so the normal check/execute path reports the error.
+     */
+    public String generate(String prompt, Map<String, Object> format, Function<String, String> sqlExtractor,
+                           OrchestrationContext context) {
+        CompletionService<Candidate> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Candidate>> futures = new CopyOnWriteArrayList<>();
+        Runnable deregister = context.onCancel(() -> futures.forEach(f -> f.cancel(true)));
+        for (int i = 0; i < temperatures.size(); i++) {
+            int index = i;
+            double temperature = temperatures.get(i);
+            futures.add(completion.submit(requestTracer.wrap(() -> {
+                String sql = sqlExtractor.apply(llmMetrics.time(structuredOutput.getModelName(), "generate_sql_candidate",
+                        format != null ? "structured" : "free_form", () -> structuredOutput.generate(prompt, format, temperature)));
+                return new Candidate(index, sql, explain(sql, context));
+            })));
+        }
+
+        String fallback = null;
+        try {
+            for (int received = 0; received < futures.size(); received++) {
+                Candidate candidate;
+                try {
+                    Future<Candidate> done = completion.poll(context.remaining().toMillis(), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        context.cancel("deadline exceeded");
+                        break;
+                    }
+                    candidate = done.get();
+                } catch (CancellationException e) {
+                    break;
+                } catch (ExecutionException e) {
+                    log.warn("SQL candidate generation failed: {}", e.getCause().getMessage());
+                    continue;
+                }
+                if (candidate.error() == null) {
+                    log.info("SQL candidate {} (temperature {}) passed EXPLAIN", candidate.index(), temperatures.get(candidate.index()));
+                    meterRegistry.counter("assistant.sql.speculative", "outcome", "valid", "candidate", String.valueOf(candidate.index())).increment();
+                    return candidate.sql();
+                }
+                log.info("SQL candidate {} rejected by EXPLAIN: {}", candidate.index(), candidate.error());
+                if (fallback == null) {
+                    fallback = candidate.sql();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            context.cancel("interrupted");
+        } finally {
+            deregister.run();
+            futures.forEach(f -> f.cancel(true));
+        }
+        context.checkActive();
+        meterRegistry.counter("assistant.sql.speculative", "outcome", "all_invalid", "candidate", "none").increment();
+        if (fallback == null) {
+            throw new IllegalArgumentException("No SQL candidate could be generated");
+        }
+        return fallback;
+    }
+
+    // EXPLAIN plans without executing, so it is a cheap syntax/name check; returns the error or null.
+    // Only analyzer-approved SELECTs are explained, rebuilt from their AST
+    private String explain(String sql, OrchestrationContext context) {
+        SqlAnalysis analysis = sqlAnalyzer.analyze(sql);
+        if (!analysis.isAllowed()) {
+            return analysis.rejectionReason();
+        }
+        try {
+            generatedQueryExecutor.query("EXPLAIN " + analysis.sql(), context, rs -> null);
+            return null;
+        } catch (OrchestrationCancelledException e) {
+            throw e;
+        } catch (Exception e) {
+            return e.getMessage();
+        }
+    }
+
+    private record Candidate(int index, String sql, String error) {
+    }
+}
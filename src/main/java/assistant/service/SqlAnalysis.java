@@ -0,0 +1,34 @@
+package assistant.service;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Structured view of one generated SQL statement, built once from its AST.
+ *
+ * @param sql              the statement as deparsed from the AST (original literals kept)
+ * @param parameterizedSql the statement with every literal replaced by {@code ?}
+ * @param fingerprint      short hash of {@code parameterizedSql}; equal for queries differing only in literals
+ * @param literals         literal values (Long, BigDecimal or unescaped String) in placeholder order
+ * @param rejectionReason  why the statement may not run (not a single read-only SELECT), or null
+ */
+public record SqlAnalysis(String sql,
+                          String parameterizedSql,
+                          String fingerprint,
+                          List<Object> literals,
+                          Set<String> tables,
+                          Set<String> columns,
+                          List<String> unknownTables,
+                          List<String> unknownColumns,
+                          String rejectionReason) {
+
+    public boolean isAllowed() {
+        return rejectionReason == null;
+    }
+
+    // True when parameterizedSql plus literals can be executed as a prepared statement
+    public boolean isBindable() {
+        return parameterizedSql != null && !literals.isEmpty()
+                && parameterizedSql.chars().filter(c -> c == '?').count() == literals.size();
+    }
+}
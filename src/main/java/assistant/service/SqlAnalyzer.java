@@ -0,0 +1,286 @@
+package assistant.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.select.Limit;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import net.sf.jsqlparser.util.TablesNamesFinder;
+import net.sf.jsqlparser.util.deparser.ExpressionDeParser;
+import net.sf.jsqlparser.util.deparser.SelectDeParser;
+import net.sf.jsqlparser.util.deparser.StatementDeParser;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses each generated statement once (JSqlParser) and derives everything the pipeline needs
+ * from that single AST: the SELECT-only check, referenced tables/columns checked against the
+ * SchemaService snapshot, and a literal-free fingerprint for caching, metrics and prepared-statement reuse.
+ * The literals lifted out of the fingerprint are bindable as-is: positional ORDER BY / GROUP BY
+ * numbers and prefixed strings (E'', X'') stay inline. Analyses are cached by SQL hash and schema version.
+ */
+@Slf4j
+@Service
+public class SqlAnalyzer {
+    private static final Set<String> FORBIDDEN_FUNCTIONS = Set.of(
+            "pg_sleep", "pg_terminate_backend", "pg_cancel_backend", "pg_read_file", "pg_read_binary_file",
+            "pg_ls_dir", "set_config", "nextval", "setval", "pg_reload_conf", "pg_rotate_logfile");
+    // Families with side effects even inside a SELECT: advisory locks, large objects, and dblink, whose own
+    // connection is not covered by the read-only pool
+    private static final List<String> FORBIDDEN_FUNCTION_PREFIXES = List.of(
+            "pg_advisory_", "pg_try_advisory_", "lo_", "dblink");
+    private static final Set<String> NON_COLUMN_WORDS = Set.of(
+            "true", "false", "null", "current_date", "current_time", "current_timestamp", "localtimestamp");
+    private static final Pattern ALIAS = Pattern.compile("(?i)\\bAS\\s+\"?(\\w+)");
+
+    private final SchemaService schemaService;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, SqlAnalysis> cache;
+
+    public SqlAnalyzer(SchemaService schemaService,
+                       MeterRegistry meterRegistry,
+                       @Value("${sql.analysis.cache-size:1000}") int cacheSize) {
+        this.schemaService = schemaService;
+        this.meterRegistry = meterRegistry;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SqlAnalysis> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    public SqlAnalysis analyze(String sql) {
+        String key = sha256(sql) + ":" + schemaService.getSchemaVersion();
+        SqlAnalysis cached = cache.get(key);
+        meterRegistry.counter("assistant.sql.analysis.cache", "result", cached != null ? "hit" : "miss").increment();
+        if (cached != null) {
+            return cached;
+        }
+        SqlAnalysis analysis = parse(sql);
+        cache.put(key, analysis);
+        return analysis;
+    }
+
+    /**
+     * Caps the statement's row count on a fresh AST: an existing numeric LIMIT above the cap is
+     * tightened, and a LIMIT is added when {@code addIfMissing} is set. Returns null if the SQL
+     * cannot be parsed.
+     */
+    public String applyRowLimit(String sql, long rowLimit, boolean addIfMissing) {
+        Statement statement;
+        try {
+            statement = CCJSqlParserUtil.parse(sql);
+        } catch (JSQLParserException e) {
+            return null;
+        }
+        if (!(statement instanceof Select select) || select.getFetch() != null) {
+            return sql;
+        }
+        Limit limit = select.getLimit();
+        if (limit == null) {
+            if (!addIfMissing) {
+                return sql;
+            }
+            select.setLimit(new Limit().withRowCount(new LongValue(rowLimit)));
+        } else if (limit.getRowCount() instanceof LongValue current && current.getValue() > rowLimit) {
+            limit.setRowCount(new LongValue(rowLimit));
+        } else {
+            return sql;
+        }
+        return select.toString();
+    }
+
+    private SqlAnalysis parse(String sql) {
+        Statement statement;
+        try {
+            statement = CCJSqlParserUtil.parse(sql);
+        } catch (JSQLParserException e) {
+            String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+            String collapsed = sql.replaceAll("\\s+", " ").trim();
+            return new SqlAnalysis(collapsed, null, sha256(collapsed).substring(0, 16), List.of(), Set.of(), Set.of(),
+                    List.of(), List.of(), "could not parse SQL: " + firstLine(message));
+        }
+
+        // Also collects the positional ORDER BY / GROUP BY numbers, which are column references, not values
+        StructureFinder structure = new StructureFinder();
+        Set<String> tables = new LinkedHashSet<>();
+        for (String table : structure.getTableList(statement)) {
+            tables.add(unqualify(table));
+        }
+
+        FingerprintDeParser expressionDeParser = new FingerprintDeParser(structure.positional);
+        StringBuilder buffer = new StringBuilder();
+        SelectDeParser selectDeParser = new SelectDeParser(expressionDeParser, buffer);
+        expressionDeParser.setSelectVisitor(selectDeParser);
+        expressionDeParser.setBuffer(buffer);
+        statement.accept(new StatementDeParser(expressionDeParser, selectDeParser, buffer));
+        String parameterizedSql = buffer.toString();
+
+        Map<String, Set<String>> snapshot = schemaService.getColumnsByTable();
+        List<String> unknownTables = new ArrayList<>();
+        List<String> unknownColumns = new ArrayList<>();
+        if (!snapshot.isEmpty()) {
+            tables.stream().filter(t -> !snapshot.containsKey(t)).forEach(unknownTables::add);
+            Set<String> aliases = new LinkedHashSet<>();
+            Matcher alias = ALIAS.matcher(parameterizedSql);
+            while (alias.find()) {
+                aliases.add(alias.group(1).toLowerCase());
+            }
+            Set<String> knownColumns = new LinkedHashSet<>();
+            snapshot.values().forEach(knownColumns::addAll);
+            expressionDeParser.columns.stream()
+                    .filter(c -> !knownColumns.contains(c) && !aliases.contains(c) && !NON_COLUMN_WORDS.contains(c))
+                    .forEach(unknownColumns::add);
+        }
+
+        return new SqlAnalysis(statement.toString(), parameterizedSql, sha256(parameterizedSql).substring(0, 16),
+                List.copyOf(expressionDeParser.literals), tables, Set.copyOf(expressionDeParser.columns),
+                unknownTables, unknownColumns, rejectionReason(statement, expressionDeParser.functions));
+    }
+
+    private String rejectionReason(Statement statement, Set<String> functions) {
+        if (!(statement instanceof Select)) {
+            return "only SELECT statements are allowed, found " + statement.getClass().getSimpleName();
+        }
+        if (statement instanceof PlainSelect plainSelect && plainSelect.getIntoTables() != null) {
+            return "SELECT INTO is not allowed";
+        }
+        for (String function : functions) {
+            if (FORBIDDEN_FUNCTIONS.contains(function)
+                    || FORBIDDEN_FUNCTION_PREFIXES.stream().anyMatch(function::startsWith)) {
+                return "function " + function + " is not allowed";
+            }
+        }
+        return null;
+    }
+
+    private static String unqualify(String name) {
+        String unquoted = name.replace("\"", "").toLowerCase();
+        return unquoted.substring(unquoted.lastIndexOf('.') + 1);
+    }
+
+    private static String firstLine(String message) {
+        if (message == null) {
+            return "syntax error";
+        }
+        int newline = message.indexOf('\n');
+        return newline < 0 ? message : message.substring(0, newline);
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class StructureFinder extends TablesNamesFinder {
+        private final Set<Expression> positional = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        @Override
+        public void visit(PlainSelect plainSelect) {
+            if (plainSelect.getOrderByElements() != null) {
+                for (OrderByElement element : plainSelect.getOrderByElements()) {
+                    markPositional(element.getExpression());
+                }
+            }
+            if (plainSelect.getGroupBy() != null && plainSelect.getGroupBy().getGroupByExpressionList() != null) {
+                for (Object expression : plainSelect.getGroupBy().getGroupByExpressionList().getExpressions()) {
+                    markPositional((Expression) expression);
+                }
+            }
+            super.visit(plainSelect);
+        }
+
+        private void markPositional(Expression expression) {
+            if (expression instanceof LongValue) {
+                positional.add(expression);
+            }
+        }
+    }
+
+    // Deparses with every bindable literal replaced by "?", collecting literals, column and function names on the way
+    private static final class FingerprintDeParser extends ExpressionDeParser {
+        private final Set<Expression> positional;
+        private final List<Object> literals = new ArrayList<>();
+        private final Set<String> columns = new LinkedHashSet<>();
+        private final Set<String> functions = new LinkedHashSet<>();
+
+        FingerprintDeParser(Set<Expression> positional) {
+            this.positional = positional;
+        }
+
+        @Override
+        public void visit(LongValue longValue) {
+            if (positional.contains(longValue)) {
+                getBuffer().append(longValue.getStringValue());
+                return;
+            }
+            try {
+                literals.add(longValue.getValue());
+                getBuffer().append('?');
+            } catch (NumberFormatException e) {
+                getBuffer().append(longValue.getStringValue()); // beyond bigint; leave it to Postgres as numeric
+            }
+        }
+
+        @Override
+        public void visit(DoubleValue doubleValue) {
+            literals.add(new BigDecimal(doubleValue.toString())); // binds as numeric, no binary rounding
+            getBuffer().append('?');
+        }
+
+        @Override
+        public void visit(StringValue stringValue) {
+            if (stringValue.getPrefix() != null) {
+                super.visit(stringValue); // E'', X'', N'' carry their own escaping/typing rules
+                return;
+            }
+            literals.add(stringValue.getValue().replace("''", "'"));
+            getBuffer().append('?');
+        }
+
+        @Override
+        public void visit(Column column) {
+            columns.add(column.getColumnName().replace("\"", "").toLowerCase());
+            super.visit(column);
+        }
+
+        @Override
+        public void visit(Function function) {
+            if (function.getName() != null) {
+                functions.add(unqualify(function.getName()));
+            }
+            super.visit(function);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package assistant.service;
+
+import assistant.mcp.McpAction;
+import assistant.mcp.McpActionRegistry;
+import assistant.mcp.McpParameterSchema;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Asks Ollama for schema-constrained JSON (the /api/chat "format" option) and repairs
+// malformed generations locally instead of paying for another LLM round trip.
+@Slf4j
+@Service
+public class StructuredOutputService {
+    private static final Pattern CODE_FENCE = Pattern.compile("```(?:json)?");
+    private static final Pattern TRAILING_COMMA = Pattern.compile(",\\s*([}\\]])");
+
+    private final WebClient ollamaWebClient;
+    private final McpActionRegistry actionRegistry;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final LlmMetrics llmMetrics;
+
+    @Value("${ollama.model-code}")
+    private String modelName;
+
+    @Value("${ollama.temperature}")
+    private double temperature;
+
+    @Value("${ollama.structured-output.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ollama.structured-output.timeout:PT2M}")
+    private Duration timeout;
+
+    public StructuredOutputService(WebClient ollamaWebClient,
+                                   McpActionRegistry actionRegistry,
+                                   ObjectMapper objectMapper,
+                                   MeterRegistry meterRegistry,
+                                   LlmMetrics llmMetrics) {
+        this.ollamaWebClient = ollamaWebClient;
+        this.actionRegistry = actionRegistry;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.llmMetrics = llmMetrics;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    // Calls /api/chat with the given JSON schema as "format"; returns the raw message content
+    public String generate(String prompt, Map<String, Object> format) {
+        return generate(prompt, format, temperature);
+    }
+
+    // A null format asks for free-form text; temperature overrides ollama.temperature for this call
+    public String generate(String prompt, Map<String, Object> format, double temperature) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("model", modelName);
+        body.put("messages", List.of(Map.of("role", "user", "content", prompt)));
+        body.put("stream", false);
+        if (format != null) {
+            body.put("format", format);
+        }
+        body.put("options", Map.of("temperature", temperature));
+        JsonNode response = ollamaWebClient.post()
+                .uri("/api/chat")
+                .bodyValue(body)
+                .retrieve()
+                .bodyToMono(JsonNode.class)
+                .block(timeout);
+        if (response == null || !response.path("message").has("content")) {
+            throw new IllegalStateException("Empty structured response from Ollama");
+        }
+        llmMetrics.tokens(modelName, countOrNull(response.path("prompt_eval_count")), countOrNull(response.path("eval_count")));
+        return response.path("message").path("content").asText();
+    }
+
+    // Ollama omits the counts when the prompt was served from its cache
+    private static Integer countOrNull(JsonNode count) {
+        return count.isNumber() ? count.asInt() : null;
+    }
+
+    // Schema for the orchestrator reply: one branch per allowed action, each with that action's params schema
+    public Map<String, Object> actionResponseSchema(Collection<String> actionNames) {
+        List<Map<String, Object>> branches = new ArrayList<>();
+        for (String name : actionNames) {
+            McpAction<?> action = actionRegistry.getAction(name);
+            if (action == null) {
+                continue;
+            }
+            branches.add(McpParameterSchema.object(Map.of(
+                    "action", Map.of("type", "string", "enum", List.of(name)),
+                    "params", action.getParameterSchema()
+            ), List.of("action", "params")));
+        }
+        return branches.size() == 1 ? branches.get(0) : Map.of("anyOf", branches);
+    }
+
+    /**
+     * Parses an LLM reply into a JSON object, repairing common defects (prose around the JSON,
+     * code fences, trailing commas). Returns null when the reply contains no JSON object at all,
+     * which callers treat as a plain-text final answer.
+     */
+    public JsonNode parseLenient(String llmResponse, String stage) {
+        try {
+            JsonNode node = objectMapper.readTree(llmResponse);
+            if (node != null && node.isObject()) {
+                record(stage, "strict");
+                return node;
+            }
+        } catch (Exception ignored) {
+            // fall through to local repair
+        }
+        String candidate;
+        try {
+            candidate = extractJsonObject(CODE_FENCE.matcher(llmResponse).replaceAll(""));
+        } catch (IllegalArgumentException e) {
+            record(stage, "failed");
+            throw e;
+        }
+        if (candidate == null) {
+            record(stage, "prose");
+            return null;
+        }
+        try {
+            JsonNode node = objectMapper.readTree(TRAILING_COMMA.matcher(candidate).replaceAll("$1"));
+            record(stage, "repaired");
+            return node;
+        } catch (Exception e) {
+            record(stage, "failed");
+            throw new IllegalArgumentException("Found JSON but failed to parse: " + e.getMessage());
+        }
+    }
+
+    // Fills missing params from values the orchestrator already knows, then validates against the action schema
+    public List<String> repairAndValidateParams(String actionName, ObjectNode params, Map<String, String> knownValues) {
+        McpAction<?> action = actionRegistry.getAction(actionName);
+        if (action == null) {
+            return List.of("unknown action '" + actionName + "'");
+        }
+        Map<String, Object> schema = action.getParameterSchema();
+        Object properties = schema.get("properties");
+        if (properties instanceof Map<?, ?> props) {
+            for (Object name : props.keySet()) {
+                String value = knownValues.get(name.toString());
+                if (value != null && !params.hasNonNull(name.toString())) {
+                    params.put(name.toString(), value);
+                }
+            }
+        }
+        List<String> problems = McpParameterSchema.validate(schema, params);
+        if (!problems.isEmpty()) {
+            meterRegistry.counter("assistant.llm.output.invalid_params", "action", actionName).increment();
+        }
+        return problems;
+    }
+
+    // Returns the first balanced {...} block, honouring string literals, or null when there is none;
+    // braces inside strings are not counted, and a reply that ends inside a string is rejected
+    private String extractJsonObject(String text) {
+        int start = text.indexOf('{');
+        if (start < 0) {
+            return null;
+        }
+        int depth = 0;
+        boolean inString = false;
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return text.substring(start, i + 1);
+            }
+        }
+        // Cut off inside a string: closing braces would turn a truncated value (e.g. half a SQL statement) into valid JSON
+        if (inString) {
+            throw new IllegalArgumentException("Found JSON but it ends inside an unterminated string");
+        }
+        // Unterminated object (generation cut off): close the open braces
+        return text.substring(start) + "}".repeat(Math.max(depth, 0));
+    }
+
+    private void record(String stage, String outcome) {
+        meterRegistry.counter("assistant.llm.output.parse", "stage", stage, "outcome", outcome).increment();
+        if ("failed".equals(outcome)) {
+            log.warn("Could not repair LLM output for stage {}", stage);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package assistant.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Offline span exporter, picked up by Boot's OpenTelemetry auto-configuration next to (or instead of)
+ * OTLP. Spans are held per trace until its root ends; the whole trace is then appended to
+ * {@code spans.jsonl} (one span per line) and its folded stacks to {@code folded-stacks.txt}, which
+ * flamegraph.pl or speedscope render across all requests. Per request, the heaviest frame is logged
+ * and the folded stacks of recent traces are kept for GET /assistant/traces/{traceId}. Single-span
+ * traces (actuator scrapes, scheduled flushes) are dropped.
+ *
+ * <p>Meant for diagnosis, so off by default: spans carry db.statement, the full generated SQL with its
+ * literals. Each file rolls over at tracing.file.max-size, keeping tracing.file.max-history old files.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "tracing.file.enabled", havingValue = "true")
+public class TraceFileExporter implements SpanExporter {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, PendingTrace> pending = new ConcurrentHashMap<>();
+    private Map<String, TraceSummary> recent;
+    private Path spansFile;
+    private Path foldedFile;
+
+    @Value("${tracing.file.directory:traces}")
+    private Path directory;
+
+    @Value("${tracing.file.max-size:20MB}")
+    private DataSize maxFileSize;
+
+    // Rolled files kept per output (spans.1.jsonl, spans.2.jsonl, ...); the oldest is deleted
+    @Value("${tracing.file.max-history:3}")
+    private int maxHistory;
+
+    @Value("${tracing.file.recent-traces:100}")
+    private int recentTraces;
+
+    // A trace whose root has not ended by then is dropped (e.g. a request still stuck past its deadline)
+    @Value("${tracing.file.pending-timeout:PT5M}")
+    private Duration pendingTimeout;
+
+    public record TraceSummary(String traceId, String root, long durationMillis, List<String> folded) {
+    }
+
+    private record PendingTrace(long firstSeenNanos, List<SpanData> spans) {
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(directory);
+        spansFile = directory.resolve("spans.jsonl");
+        foldedFile = directory.resolve("folded-stacks.txt");
+        recent = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TraceSummary> eldest) {
+                return size() > recentTraces;
+            }
+        });
+        log.info("Writing traces to {} (up to {} per file, {} rolled files kept)", directory.toAbsolutePath(), maxFileSize, maxHistory);
+    }
+
+    public TraceSummary getTrace(String traceId) {
+        return recent.get(traceId);
+    }
+
+    // Called from the batch span processor's single worker thread
+    @Override
+    public synchronized CompletableResultCode export(Collection<SpanData> spans) {
+        List<SpanData> roots = new ArrayList<>();
+        for (SpanData span : spans) {
+            pending.computeIfAbsent(span.getTraceId(), id -> new PendingTrace(System.nanoTime(), new ArrayList<>()))
+                    .spans().add(span);
+            if (!span.getParentSpanContext().isValid()) {
+                roots.add(span);
+            }
+        }
+        try {
+            for (SpanData root : roots) {
+                PendingTrace trace = pending.remove(root.getTraceId());
+                if (trace != null && trace.spans().size() > 1) {
+                    write(root, trace.spans());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not write traces to {}: {}", directory, e.getMessage());
+            return CompletableResultCode.ofFailure();
+        } finally {
+            long cutoff = System.nanoTime() - pendingTimeout.toNanos();
+            pending.values().removeIf(trace -> trace.firstSeenNanos() < cutoff);
+        }
+        return CompletableResultCode.ofSuccess();
+    }
+
+    private void write(SpanData root, List<SpanData> spans) throws IOException {
+        List<String> lines = new ArrayList<>();
+        List<FlameGraphSummary.TraceSpan> traceSpans = new ArrayList<>();
+        for (SpanData span : spans) {
+            lines.add(toJson(span));
+            traceSpans.add(new FlameGraphSummary.TraceSpan(span.getSpanId(),
+                    span.getParentSpanContext().isValid() ? span.getParentSpanId() : null,
+                    span.getName(), span.getStartEpochNanos(), span.getEndEpochNanos()));
+        }
+        List<FlameGraphSummary.Frame> frames = FlameGraphSummary.fold(traceSpans);
+        List<String> folded = frames.stream().map(FlameGraphSummary.Frame::folded).toList();
+        append(spansFile, lines);
+        append(foldedFile, folded);
+
+        long durationMillis = (root.getEndEpochNanos() - root.getStartEpochNanos()) / 1_000_000;
+        recent.put(root.getTraceId(), new TraceSummary(root.getTraceId(), root.getName(), durationMillis, folded));
+        if (!frames.isEmpty()) {
+            FlameGraphSummary.Frame heaviest = frames.get(0);
+            log.info("Trace {} ({}, {} ms, {} spans): most self time in {} ({} ms, {}%)",
+                    root.getTraceId(), root.getName(), durationMillis, spans.size(), heaviest.stack(),
+                    heaviest.selfMicros() / 1_000, durationMillis > 0 ? heaviest.selfMicros() / 10 / durationMillis : 0);
+        }
+    }
+
+    private void append(Path file, List<String> lines) throws IOException {
+        if (lines.isEmpty()) {
+            return;
+        }
+        byte[] bytes = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+        if (Files.exists(file) && Files.size(file) + bytes.length > maxFileSize.toBytes()) {
+            roll(file);
+        }
+        Files.write(file, bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    // spans.jsonl -> spans.1.jsonl -> spans.2.jsonl ...; whatever would go past max-history is deleted
+    private void roll(Path file) throws IOException {
+        Files.deleteIfExists(rolled(file, maxHistory));
+        for (int i = maxHistory - 1; i >= 1; i--) {
+            Path from = rolled(file, i);
+            if (Files.exists(from)) {
+                Files.move(from, rolled(file, i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxHistory > 0) {
+            Files.move(file, rolled(file, 1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+    }
+
+    private static Path rolled(Path file, int index) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return file.resolveSibling(name.substring(0, dot) + "." + index + name.substring(dot));
+    }
+
+    private String toJson(SpanData span) throws JsonProcessingException {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("traceId", span.getTraceId());
+        json.put("spanId", span.getSpanId());
+        json.put("parentSpanId", span.getParentSpanContext().isValid() ? span.getParentSpanId() : null);
+        json.put("name", span.getName());
+        json.put("startEpochNanos", span.getStartEpochNanos());
+        json.put("endEpochNanos", span.getEndEpochNanos());
+        json.put("durationMicros", (span.getEndEpochNanos() - span.getStartEpochNanos()) / 1_000);
+        json.put("status", span.getStatus().getStatusCode().name());
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        span.getAttributes().forEach((key, value) -> attributes.put(key.getKey(), value));
+        json.put("attributes", attributes);
+        return objectMapper.writeValueAsString(json);
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        pending.clear();
+        return CompletableResultCode.ofSuccess();
+    }
+}
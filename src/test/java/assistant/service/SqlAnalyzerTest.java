@@ -0,0 +1,41 @@
+package assistant.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SqlAnalyzerTest {
+    private final SqlAnalyzer analyzer = newAnalyzer();
+
+    private static SqlAnalyzer newAnalyzer() {
+        SchemaService schemaService = mock(SchemaService.class);
+        when(schemaService.getColumnsByTable()).thenReturn(Map.of());
+        return new SqlAnalyzer(schemaService, new SimpleMeterRegistry(), 100);
+    }
+
+    @Test
+    void rejectsDblinkExec() {
+        SqlAnalysis analysis = analyzer.analyze(
+                "SELECT dblink_exec('dbname=assistant', 'DELETE FROM work_orders')");
+        assertFalse(analysis.isAllowed());
+    }
+
+    @Test
+    void rejectsSideEffectFunctionFamilies() {
+        assertFalse(analyzer.analyze("SELECT lo_unlink(12345)").isAllowed());
+        assertFalse(analyzer.analyze("SELECT pg_advisory_lock(1)").isAllowed());
+        assertFalse(analyzer.analyze("SELECT nextval('work_orders_id_seq')").isAllowed());
+        assertFalse(analyzer.analyze("SELECT pg_reload_conf()").isAllowed());
+    }
+
+    @Test
+    void allowsPlainSelect() {
+        assertTrue(analyzer.analyze("SELECT lower(status) FROM work_orders WHERE id = 1").isAllowed());
+    }
+}